@@ -0,0 +1,65 @@
+package test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+
+import test.benchmarks.Fixtures;
+
+/**
+ * The EAN list formatting on its own, one operation formats the EAN lists of
+ * all products of the product response.
+ *
+ * Lives in the package of the parser, the formatting is not public API.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EanListBenchmark {
+    private String eanListsJson;
+
+    @Setup
+    public void loadFixtures() throws IOException {
+        // The eanList arrays of all products as one array, so an operation reads them with one reader
+        JsonArray eanLists = new JsonArray();
+        for (JsonElement product : JsonParser.parseString(Fixtures.load(Fixtures.PRODUCT)).getAsJsonObject().getAsJsonArray("products")) {
+            JsonElement eanList = product.getAsJsonObject().get("eanList");
+            eanLists.add(eanList != null ? eanList : new JsonArray());
+        }
+        eanListsJson = eanLists.toString();
+    }
+
+    @Benchmark
+    public List<String> formatEanLists() throws IOException {
+        List<String> formatted = new ArrayList<>(100);
+        try (JsonReader reader = new JsonReader(new StringReader(eanListsJson))) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                formatted.add(KeepaResponseParser.formatEanList(reader));
+            }
+            reader.endArray();
+        }
+        return formatted;
+    }
+}
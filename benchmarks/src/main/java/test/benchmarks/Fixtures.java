@@ -0,0 +1,37 @@
+package test.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Sample Keepa responses of test-app's src/test/resources/fixtures, packaged into
+ * the benchmarks jar.
+ *
+ * product.json holds 100 products of a 90-day product request with history,
+ * seller.json a seller request and bestsellers.json a 10000 ASIN best-seller list.
+ */
+public class Fixtures {
+    public static final String PRODUCT = "product.json";
+    public static final String SELLER = "seller.json";
+    public static final String BEST_SELLERS = "bestsellers.json";
+
+    private Fixtures() {
+    }
+
+    public static String load(String name) throws IOException {
+        try (InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name)) {
+            if (in == null) {
+                throw new IOException("Fixture not found: " + name);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
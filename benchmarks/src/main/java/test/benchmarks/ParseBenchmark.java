@@ -0,0 +1,66 @@
+package test.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import test.KeepaProduct;
+import test.KeepaResponseParser;
+
+/**
+ * Parsing of whole Keepa responses, one operation is one response.
+ *
+ * The EAN list formatting happens inside the product parsing and is also
+ * measured on its own by {@link test.EanListBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+    private String productJson;
+    private String sellerJson;
+    private String bestSellersJson;
+
+    @Setup
+    public void loadFixtures() throws IOException {
+        productJson = Fixtures.load(Fixtures.PRODUCT);
+        sellerJson = Fixtures.load(Fixtures.SELLER);
+        bestSellersJson = Fixtures.load(Fixtures.BEST_SELLERS);
+    }
+
+    @Benchmark
+    public List<KeepaProduct> parseProducts() throws IOException {
+        return KeepaResponseParser.parseProducts(productJson);
+    }
+
+    // The single fetch mode also keeps the csv histories
+    @Benchmark
+    public List<KeepaProduct> parseProductsWithHistory() throws IOException {
+        return KeepaResponseParser.parseProducts(productJson, true);
+    }
+
+    @Benchmark
+    public Map<String, String> parseSellerNames() throws IOException {
+        return KeepaResponseParser.parseSellerNames(sellerJson);
+    }
+
+    @Benchmark
+    public List<String> parseAsinList() throws IOException {
+        return KeepaResponseParser.parseAsinList(bestSellersJson);
+    }
+}
@@ -0,0 +1,65 @@
+package test.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import test.KeepaProduct;
+import test.KeepaResponseParser;
+import test.ProductRow;
+
+/**
+ * Turning parsed products into rows, one operation is the 100 products of one response.
+ *
+ * This is the work of the pipeline enrich stage without the seller lookup,
+ * including the content hash used by the change detection.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransformBenchmark {
+    // The node of the default DE job
+    private static final long CATEGORY_NODE_ID = 562066;
+
+    private String productJson;
+    private List<KeepaProduct> products;
+
+    @Setup
+    public void loadFixtures() throws IOException {
+        productJson = Fixtures.load(Fixtures.PRODUCT);
+        products = KeepaResponseParser.parseProducts(productJson);
+    }
+
+    @Benchmark
+    public List<ProductRow> toRows() {
+        return toRows(products);
+    }
+
+    @Benchmark
+    public List<ProductRow> parseAndToRows() throws IOException {
+        return toRows(KeepaResponseParser.parseProducts(productJson));
+    }
+
+    static List<ProductRow> toRows(List<KeepaProduct> products) {
+        List<ProductRow> rows = new ArrayList<>(products.size());
+        for (KeepaProduct product : products) {
+            rows.add(new ProductRow(product, CATEGORY_NODE_ID, "Sample Seller", 1, product.getBuyBoxStatsCount()));
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,96 @@
+package test.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import test.ConnectionPool;
+import test.CopyProductWriter;
+import test.KeepaResponseParser;
+import test.ProductRow;
+import test.ProductWriter;
+
+/**
+ * The database write path, one operation writes the 100 rows of one response.
+ *
+ * Runs against the database in BENCH_DB_URL (with BENCH_DB_USER, BENCH_DB_PASSWORD
+ * and BENCH_DB_SCHEMA) or an embedded Postgres when it is not set. The same
+ * ASINs are written every time, so the upserts update existing rows like a
+ * nightly refresh does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class WriteBenchmark {
+    private static final String TABLE_NAME = "products_bench";
+    private static final int ROWS_PER_OPERATION = 100;
+
+    @Param({"upsert", "copy"})
+    public String writeMode;
+
+    private EmbeddedPostgres embeddedPostgres;
+    private ConnectionPool connectionPool;
+    private ProductWriter writer;
+    private List<ProductRow> rows;
+
+    @Setup
+    public void start() throws IOException {
+        String dbUrl = System.getenv("BENCH_DB_URL");
+        if (dbUrl == null) {
+            embeddedPostgres = EmbeddedPostgres.start();
+            connectionPool = new ConnectionPool(embeddedPostgres.getJdbcUrl("postgres", "postgres"), "postgres", "", "public", 2);
+        } else {
+            String schema = System.getenv("BENCH_DB_SCHEMA");
+            connectionPool = new ConnectionPool(dbUrl, System.getenv("BENCH_DB_USER"), System.getenv("BENCH_DB_PASSWORD"), schema != null ? schema : "public", 2);
+        }
+
+        rows = TransformBenchmark.toRows(KeepaResponseParser.parseProducts(Fixtures.load(Fixtures.PRODUCT)));
+
+        // Batches are written by the benchmark, never by the flush timer
+        long flushIntervalMs = TimeUnit.HOURS.toMillis(1);
+        if ("copy".equals(writeMode)) {
+            writer = new CopyProductWriter(connectionPool, TABLE_NAME, null, ROWS_PER_OPERATION, flushIntervalMs);
+        } else {
+            writer = new ProductWriter(connectionPool, TABLE_NAME, null, ROWS_PER_OPERATION, flushIntervalMs);
+        }
+    }
+
+    @TearDown
+    public void stop() throws IOException {
+        writer.close();
+        connectionPool.close();
+        if (embeddedPostgres != null) {
+            embeddedPostgres.close();
+        }
+    }
+
+    // In copy mode finish() also merges the staging table, as at the end of a locale
+    @Benchmark
+    public void writeBatch() {
+        for (ProductRow row : rows) {
+            writer.add(row, null);
+        }
+        writer.finish();
+        // The writer logs and counts failed rows instead of throwing, a run that lost rows measured nothing
+        if (writer.getFailedRows() > 0) {
+            throw new IllegalStateException(writer.getFailedRows() + " rows failed to write into " + TABLE_NAME);
+        }
+    }
+}
@@ -1,26 +1,24 @@
 package test;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.sql.Statement;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.time.Duration;
+import java.time.YearMonth;
+import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-import org.json.JSONTokener;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.keepa.api.backend.KeepaAPI;
 import com.keepa.api.backend.structs.AmazonLocale;
@@ -28,506 +26,446 @@ import com.keepa.api.backend.structs.Request;
 
 import io.github.cdimascio.dotenv.Dotenv;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
 public class App {
-    private static final int BATCH_SIZE = 1;
-    private static final int MAX_ASINS = 1000;  // Limit to first 1000 ASINs
+    private static final Logger LOGGER = LogManager.getLogger(App.class);
+    private static final int BATCH_SIZE = 100;  // Keepa accepts up to 100 ASINs per product request
+    private static final int BEST_SELLERS_TOKEN_COST = 50;
+    private static final int MAX_ASINS = 1000;  // Default limit to first 1000 ASINs per job
+    private static final String DEFAULT_JOBS = "DE:562066:1000,FR:13921051:1000";
+    private static final String DEFAULT_SCHEDULE = "0 */6 * * *";
+    private static final long DISCOVERY_POLL_MS = 15000;
+
+    private static final Map<AmazonLocale, ProductWriter> writers = new ConcurrentHashMap<>();
+    private static final AtomicBoolean closed = new AtomicBoolean();
+    private static final CountDownLatch stopSignal = new CountDownLatch(1);
+    private static final CountDownLatch mainFinished = new CountDownLatch(1);
+    private static volatile boolean stopRequested = false;
+    private static long shutdownTimeoutSeconds;
+    private static ConnectionPool connectionPool;
+    private static MetricsServer metricsServer;
+    private static int writerBatchSize;
+    private static long writerFlushIntervalMs;
+    private static boolean copyWriteMode;
+    private static ResponseArchive responseArchive;
+    private static SellerCache sellerCache;
+    private static ProductPipeline.Settings pipelineSettings;
+    private static boolean historyEnabled;
+    private static int historyRetentionMonths;
+    private static boolean checkpointsEnabled;
+    private static boolean forceFullRefresh;
+    private static long checkpointMaxAgeMs;
+    private static CategoryCrawler categoryCrawler;
+    private static ShardLeases shardLeases;
+    private static int crawlShards;
+    private static long crawlRefreshMs;
 
     public static void main(String[] args) {
         Dotenv dotenv = Dotenv.load();
-        String apiKey = dotenv.get("API_KEY");
-        KeepaAPI api = new KeepaAPI(apiKey);
+        // "export" writes a product table to a file and does not touch the Keepa API
+        if (args.length > 0 && "export".equals(args[0])) {
+            ProductExport.run(dotenv, Arrays.copyOfRange(args, 1, args.length));
+            LogManager.shutdown();
+            return;
+        }
+        // KEEPA_CLIENT=fake runs against the offline stand-in instead of the Keepa API
+        KeepaClient client;
+        if ("fake".equalsIgnoreCase(dotenv.get("KEEPA_CLIENT", "api"))) {
+            try {
+                client = FakeKeepaClient.fromEnv(dotenv);
+            } catch (IOException e) {
+                LOGGER.error("Error loading fake Keepa fixtures: " + e.getMessage());
+                LogManager.shutdown();
+                return;
+            }
+            LOGGER.info("Using the fake Keepa client");
+        } else {
+            client = new KeepaApiClient(new KeepaAPI(dotenv.get("API_KEY")));
+        }
+        RequestScheduler scheduler = new RequestScheduler(client, new TokenBucket());
+        metricsServer = MetricsServer.fromEnv(dotenv);
+        sellerCache = new SellerCache(scheduler, Integer.parseInt(dotenv.get("SELLER_CACHE_SIZE", "10000")),
+            TimeUnit.HOURS.toMillis(Long.parseLong(dotenv.get("SELLER_CACHE_TTL_HOURS", "24"))));
+
+        // One pool for the whole run, closed when the JVM exits
+        connectionPool = ConnectionPool.fromEnv(dotenv);
+        writerBatchSize = Integer.parseInt(dotenv.get("WRITER_BATCH_SIZE", "500"));
+        writerFlushIntervalMs = Long.parseLong(dotenv.get("WRITER_FLUSH_INTERVAL_MS", "5000"));
+        copyWriteMode = "copy".equalsIgnoreCase(dotenv.get("WRITE_MODE", "upsert"));
+        historyEnabled = Boolean.parseBoolean(dotenv.get("HISTORY", "false"));
+        historyRetentionMonths = Integer.parseInt(dotenv.get("HISTORY_RETENTION_MONTHS", "12"));
+        responseArchive = new ResponseArchive(Boolean.parseBoolean(dotenv.get("ARCHIVE_RESPONSES", "false")), dotenv.get("ARCHIVE_DIR", "responses"));
+
+        pipelineSettings = ProductPipeline.Settings.fromEnv(dotenv);
+
+        // Interrupted runs are resumed unless a full refresh is forced
+        checkpointsEnabled = Boolean.parseBoolean(dotenv.get("CHECKPOINTS", "true"));
+        forceFullRefresh = Boolean.parseBoolean(dotenv.get("FULL_REFRESH", "false")) || Arrays.asList(args).contains("--full-refresh");
+        checkpointMaxAgeMs = TimeUnit.HOURS.toMillis(Long.parseLong(dotenv.get("CHECKPOINT_MAX_AGE_HOURS", "24")));
+        List<LocaleJob> jobs = LocaleJob.parseList(dotenv.get("JOBS", DEFAULT_JOBS), MAX_ASINS);
+
+        // The sharded crawl covers the sub-categories of every job node, split between all workers
+        if ("sharded".equalsIgnoreCase(dotenv.get("CRAWL_MODE", "top"))) {
+            categoryCrawler = new CategoryCrawler(scheduler, Integer.parseInt(dotenv.get("CRAWL_DEPTH", "1")), Integer.parseInt(dotenv.get("CRAWL_MAX_NODES", "100")));
+            shardLeases = new ShardLeases(connectionPool, dotenv.get("WORKER_ID", ShardLeases.defaultWorkerId()),
+                TimeUnit.MINUTES.toMillis(Long.parseLong(dotenv.get("CRAWL_LEASE_MINUTES", "10"))));
+            crawlShards = Integer.parseInt(dotenv.get("CRAWL_SHARDS", "16"));
+            crawlRefreshMs = TimeUnit.HOURS.toMillis(Long.parseLong(dotenv.get("CRAWL_REFRESH_HOURS", "24")));
+            LOGGER.info("Sharded crawl as worker " + shardLeases.getWorkerId() + " with " + crawlShards + " shards per job");
+        }
 
-        processBestSellersForLocale(api, AmazonLocale.DE, 562066, "DE Keepa Data");
-        waitBeforeNextLocale();
-        processBestSellersForLocale(api, AmazonLocale.FR, 13921051, "FR Keepa Data");
-        // Call this after all locales have been processed
+        // Start with the sellers known from earlier runs
+        SellerDirectory sellerDirectory = new SellerDirectory(connectionPool, TimeUnit.DAYS.toMillis(Long.parseLong(dotenv.get("SELLER_REFRESH_DAYS", "30"))));
+        sellerCache.setDirectory(sellerDirectory);
+        for (AmazonLocale locale : getLocales(jobs)) {
+            sellerDirectory.loadInto(sellerCache, locale);
+        }
+
+        shutdownTimeoutSeconds = Long.parseLong(dotenv.get("SHUTDOWN_TIMEOUT_SECONDS", "300"));
+        Runtime.getRuntime().addShutdownHook(new Thread(App::stop));
+
+        // All jobs run at the same time and share the token bucket of the scheduler
+        int parallelism = Integer.parseInt(dotenv.get("JOB_PARALLELISM", String.valueOf(jobs.size())));
+        ExecutorService jobExecutor = Executors.newFixedThreadPool(Math.max(1, parallelism));
+        try {
+            // The daemon keeps the pool, the caches and the Keepa client warm between runs
+            if ("daemon".equalsIgnoreCase(dotenv.get("RUN_MODE", "once")) || Arrays.asList(args).contains("--daemon")) {
+                CronSchedule schedule = CronSchedule.parse(dotenv.get("SCHEDULE", DEFAULT_SCHEDULE));
+                runDaemon(scheduler, jobs, jobExecutor, schedule, Boolean.parseBoolean(dotenv.get("RUN_ON_START", "false")));
+            } else {
+                runJobs(scheduler, jobs, jobExecutor);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.warn("Thread interrupted: " + e.getMessage());
+        } finally {
+            jobExecutor.shutdown();
+            closeResources();
+            mainFinished.countDown();
+        }
+    }
+
+    // Run the jobs at every time of the schedule until the JVM is asked to stop, a run that is late skips the missed times
+    private static void runDaemon(RequestScheduler scheduler, List<LocaleJob> jobs, ExecutorService jobExecutor, CronSchedule schedule, boolean runOnStart) throws InterruptedException {
+        LOGGER.info("Running as daemon with schedule: " + schedule);
+        if (runOnStart) {
+            runJobs(scheduler, jobs, jobExecutor);
+        }
+        while (!stopRequested) {
+            ZonedDateTime next = schedule.next(ZonedDateTime.now());
+            LOGGER.info("Next run at " + next);
+            long waitMs = Duration.between(ZonedDateTime.now(), next).toMillis();
+            if (stopSignal.await(Math.max(0, waitMs), TimeUnit.MILLISECONDS)) {
+                break;
+            }
+            runJobs(scheduler, jobs, jobExecutor);
+        }
     }
 
-    private static String getCurrentTime() {
-        DateTimeFormatter dtf = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm:ss");
-        return dtf.format(LocalDateTime.now());
+    private static void runJobs(RequestScheduler scheduler, List<LocaleJob> jobs, ExecutorService jobExecutor) {
+        Metrics.Snapshot runStart = Metrics.snapshot();
+        List<CompletableFuture<Void>> jobFutures = new ArrayList<>();
+        for (LocaleJob job : jobs) {
+            jobFutures.add(processBestSellersForLocale(scheduler, job, jobExecutor));
+        }
+
+        // Call this after all locales have been processed
+        CompletableFuture.allOf(jobFutures.toArray(new CompletableFuture[0])).join();
+        LOGGER.info("Finished " + jobs.size() + " jobs");
+        for (String line : Metrics.getSummary(runStart)) {
+            LOGGER.info(line);
+        }
+
+        // A forced full refresh only applies to the first run of a daemon
+        forceFullRefresh = false;
     }
 
-    private static void waitBeforeNextLocale() {
+    // Shutdown hook: stop feeding new batches, wait for the current run to drain, then close the resources
+    private static void stop() {
+        stopRequested = true;
+        stopSignal.countDown();
         try {
-            Thread.sleep(1000);
+            if (!mainFinished.await(shutdownTimeoutSeconds, TimeUnit.SECONDS)) {
+                LOGGER.warn("Run did not drain within " + shutdownTimeoutSeconds + " seconds, closing resources");
+            }
         } catch (InterruptedException e) {
-            System.out.println("Thread interrupted: " + e.getMessage());
+            Thread.currentThread().interrupt();
         }
+        closeResources();
     }
 
-    private static void processBestSellersForLocale(KeepaAPI api, AmazonLocale locale, int nodeId, String responseFileName) {
-        Request bestSellersRequest = Request.getBestSellersRequest(locale, nodeId);
-
-        api.sendRequest(bestSellersRequest)
-            .done(result -> {
-                // Write the response to a file
-                try (FileWriter writer = new FileWriter(responseFileName + ".txt")) {
-                    writer.write(result.toString());
-                    System.out.println("[" + getCurrentTime() + "] " + "Data saved to: " + responseFileName + ".txt");
-                    writer.flush();
-                } catch (IOException e) {
-                    System.out.println("[" + getCurrentTime() + "] " + "Error writing to file: " + e.getMessage());
-                }
+    private static Set<AmazonLocale> getLocales(List<LocaleJob> jobs) {
+        Set<AmazonLocale> locales = new LinkedHashSet<>();
+        for (LocaleJob job : jobs) {
+            locales.add(job.getLocale());
+        }
+        return locales;
+    }
 
-                // Read the response back from the file and process it
-                try (BufferedReader br = new BufferedReader(new FileReader(responseFileName + ".txt"))) {
-                    StringBuilder sb = new StringBuilder();
-                    String line;
-                    while ((line = br.readLine()) != null) {
-                        sb.append(line);
-                    }
+    // Flush the remaining products before the connections are closed
+    private static void closeResources() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        for (ProductWriter writer : writers.values()) {
+            writer.close();
+        }
+        if (shardLeases != null) {
+            shardLeases.close();
+        }
+        connectionPool.close();
+        if (metricsServer != null) {
+            metricsServer.close();
+        }
+        // The log4j shutdown hook is disabled so the last lines are not lost, the async appender is flushed here
+        LogManager.shutdown();
+    }
 
-                    String jsonResponseString = sb.toString();
-                    JSONObject jsonResponse = new JSONObject(jsonResponseString);
+    private static ProductWriter getWriter(AmazonLocale locale) {
+        return writers.computeIfAbsent(locale, l -> {
+            String tableName = ProductTable.getTableName(l);
+            String historyTableName = historyEnabled ? ProductHistoryTable.getTableName(l) : null;
+            if (copyWriteMode) {
+                return new CopyProductWriter(connectionPool, tableName, historyTableName, writerBatchSize, writerFlushIntervalMs);
+            }
+            return new ProductWriter(connectionPool, tableName, historyTableName, writerBatchSize, writerFlushIntervalMs);
+        });
+    }
+
+    private static CompletableFuture<Void> processBestSellersForLocale(RequestScheduler scheduler, LocaleJob job, ExecutorService jobExecutor) {
+        if (shardLeases != null) {
+            return CompletableFuture.runAsync(() -> processShardedCrawl(scheduler, job), jobExecutor)
+                .exceptionally(failure -> {
+                    LOGGER.error("Error crawling " + job, failure);
+                    return null;
+                });
+        }
+        AmazonLocale locale = job.getLocale();
+        String responseName = locale + " Keepa Data " + job.getCategoryNodeId();
+        Request bestSellersRequest = Request.getBestSellersRequest(locale, job.getCategoryNodeId());
 
-                    if (jsonResponse.has("bestSellersList")) {
-                        JSONArray asinList = jsonResponse.getJSONObject("bestSellersList").getJSONArray("asinList");
+        // The batches of a job run on a job thread, not on the Keepa callback thread
+        return scheduler.submit(bestSellersRequest, BEST_SELLERS_TOKEN_COST)
+            .thenAcceptAsync(result -> {
+                responseArchive.save(responseName, result);
 
-                        String asinFileName = responseFileName + "_asinList.txt";
+                // Parse the response in memory, only the ASIN list is read
+                try {
+                    List<String> asins = KeepaResponseParser.parseAsinList(result);
 
-                        // Write the asinList to a separate file
-                        try (FileWriter asinWriter = new FileWriter(asinFileName)) {
-                            for (int i = 0; i < asinList.length(); i++) {
-                                asinWriter.write(asinList.getString(i) + System.lineSeparator());
-                            }
-                            asinWriter.flush();
-                            System.out.println("[" + getCurrentTime() + "] " + "ASIN list saved to: " + asinFileName);
-                        } catch (IOException e) {
-                            System.out.println("[" + getCurrentTime() + "] " + "Error writing ASIN list to file: " + e.getMessage());
-                        }
+                    if (!asins.isEmpty()) {
+                        LOGGER.info("Received " + asins.size() + " best seller ASINs for: " + responseName);
 
-                        // Process the first 1000 ASINs in batches for the current locale
-                        processAsinBatches(asinFileName, api, locale);
+                        // Process the first ASINs in batches for the current job
+                        applyRetention(locale);
+                        processAsinBatches(asins.subList(0, Math.min(asins.size(), job.getMaxAsins())), scheduler, job, checkpointsEnabled);
                     } else {
-                        System.out.println("[" + getCurrentTime() + "] " + "bestSellersList not found in the response.");
+                        LOGGER.warn("bestSellersList not found in the response.");
                     }
-                } catch (IOException | JSONException e) {
-                    System.out.println("[" + getCurrentTime() + "] " + "Error processing JSON from file: " + e.getMessage());
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.error("Error processing best sellers JSON: " + e.getMessage());
                 }
-            })
-            .fail(failure -> System.out.println(failure));
+            }, jobExecutor)
+            .exceptionally(failure -> {
+                LOGGER.error("Error processing best sellers of " + responseName, failure);
+                return null;
+            });
     }
 
-    private static void processAsinBatches(String asinFileName, KeepaAPI api, AmazonLocale locale) {
-        deleteOldData(locale);
-
-        List<String> asins = readAsinListFromFile(asinFileName);
-        if (asins.size() > MAX_ASINS) {
-            asins = asins.subList(0, MAX_ASINS);
-        }
-        int totalAsins = asins.size();
-        System.out.println("[" + getCurrentTime() + "] " + "Total ASINs to process: " + totalAsins);
-        Collections.reverse(asins);
-
-        // Process ASINs in batches
-        for (int start = 0; start < totalAsins; start += BATCH_SIZE) {
-            int end = Math.min(start + BATCH_SIZE, totalAsins);
-            List<String> batch = asins.subList(start, end);
-            String asinBatch = String.join(",", batch);
-            // Request for seller data first
-            Request sellersRequest = Request.getProductRequest(locale, 90, 40, asinBatch);
-    
-            api.sendRequest(sellersRequest)
-                .done(sellersResult -> {
-                    try (FileWriter sellerWriter = new FileWriter("sellers_data.json")) {
-                        sellerWriter.write(sellersResult.toString());
-                        System.out.println("[" + getCurrentTime() + "] " + "Seller data saved to file.");
-                        sellerWriter.flush();
-    
-                        // Read and process the seller data
-                        try (FileReader sellersReader = new FileReader("sellers_data.json")) {
-                            JSONTokener sellersTokener = new JSONTokener(sellersReader);
-                            JSONObject sellersJsonObject = new JSONObject(sellersTokener);
-    
-                            JSONArray sellerProducts = sellersJsonObject.getJSONArray("products");
-                            LinkedHashMap<String, Integer> asinToWinnerCount = new LinkedHashMap<>();
-    
-                            // Collect ASINs and their winner counts from seller data
-                            for (int j = 0; j < sellerProducts.length(); j++) {
-                                JSONObject sellerProduct = sellerProducts.getJSONObject(j);
-                                String asin = sellerProduct.optString("asin");
-                                JSONObject sellerStats = sellerProduct.optJSONObject("stats");
-                                JSONObject sellerBuyBoxStats = sellerStats != null ? sellerStats.optJSONObject("buyBoxStats") : null;
-                                int winnerCount90 = sellerBuyBoxStats != null ? sellerBuyBoxStats.length() : 0;
-                                asinToWinnerCount.put(asin, winnerCount90);
-                            }
-    
-                            // Request for product data with the same batch of ASINs
-                            String productAsinBatch = String.join(",", asinToWinnerCount.keySet());
-                            Request productRequest = Request.getProductRequest(locale, 30, 40, productAsinBatch);
-                            productRequest.parameter.put("stock", "1");
-    
-                            api.sendRequest(productRequest)
-                                .done(productResult -> {
-                                    try (FileWriter writer = new FileWriter("batch_data.json")) {
-                                        writer.write(productResult.toString());
-                                        System.out.println("[" + getCurrentTime() + "] " + "Batch data saved to file.");
-                                        writer.flush();
-    
-                                        // Read and process the JSON data for the batch
-                                        try (FileReader reader = new FileReader("batch_data.json")) {
-                                            JSONTokener tokener = new JSONTokener(reader);
-                                            JSONObject jsonObject = new JSONObject(tokener);
-    
-                                            // Process the "products" array at the top level of the response
-                                            JSONArray products = jsonObject.getJSONArray("products");
-    
-                                            // Map to store product data by ASIN
-                                            LinkedHashMap<String, JSONObject> asinToProductData = new LinkedHashMap<>();
-                                            for (int k = 0; k < products.length(); k++) {
-                                                JSONObject product = products.getJSONObject(k);
-                                                String asin = product.optString("asin");
-                                                asinToProductData.put(asin, product);
-                                            }
-    
-                                            // Process each product in the order of ASINs from the original list
-                                            List<CompletableFuture<Void>> futures = new ArrayList<>();
-                                            for (String asin : batch) {
-                                                JSONObject product = asinToProductData.get(asin);
-                                                if (product != null) {
-                                                    int winnerCount90 = asinToWinnerCount.getOrDefault(asin, 0);
-    
-                                                    // Use CompletableFuture to handle async operation
-                                                    CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
-                                                        processProductData(product, winnerCount90, locale);
-                                                    });
-                                                    futures.add(future);
-                                                }
-                                            }
-    
-                                            // Wait for all futures to complete
-                                            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
-                                        } catch (Exception e) {
-                                            System.out.println("[" + getCurrentTime() + "] " + "Error parsing batch product JSON: " + e.getMessage());
-                                        }
-                                    } catch (IOException e) {
-                                        System.out.println("[" + getCurrentTime() + "] " + "Error writing batch data: " + e.getMessage());
-                                    }
-                                })
-                                .fail(failure -> System.out.println("[" + getCurrentTime() + "] " + failure));
-                        } catch (Exception e) {
-                            System.out.println("[" + getCurrentTime() + "] " + "Error parsing seller product JSON: " + e.getMessage());
-                        }
-                    } catch (IOException e) {
-                        System.out.println("[" + getCurrentTime() + "] " + "Error writing seller batch data: " + e.getMessage());
+    // Collect the ASIN space once for all workers, then process the shards this worker can claim
+    private static void processShardedCrawl(RequestScheduler scheduler, LocaleJob job) {
+        AmazonLocale locale = job.getLocale();
+        long nodeId = job.getCategoryNodeId();
+        try {
+            int generation = 0;
+            while (!stopRequested) {
+                if (shardLeases.claimDiscovery(locale, nodeId, crawlRefreshMs)) {
+                    try {
+                        List<String> asins = categoryCrawler.collectAsins(locale, nodeId);
+                        // Only the worker holding the discovery lease cleans up, once per collected ASIN space instead of once per shard
+                        applyRetention(locale);
+                        shardLeases.completeDiscovery(locale, nodeId, asins, crawlShards);
+                    } catch (IOException | SQLException | RuntimeException e) {
+                        shardLeases.release(locale, nodeId, ShardLeases.DISCOVERY_SHARD);
+                        throw e;
                     }
-                })
-                .fail(failure -> System.out.println("[" + getCurrentTime() + "] " + failure));
-    
-            try {
-                Thread.sleep(30000); // Sleep between batches to avoid hitting API rate limits
-            } catch (InterruptedException e) {
-                System.out.println("[" + getCurrentTime() + "] " + "Thread interrupted: " + e.getMessage());
+                }
+                generation = shardLeases.getGeneration(locale, nodeId);
+                if (generation > 0) {
+                    break;
+                }
+                // Another worker is collecting the first ASIN space of the job
+                LOGGER.info("Waiting for the ASINs of " + job + " to be collected");
+                if (stopSignal.await(DISCOVERY_POLL_MS, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
             }
-        }
-    }
-    
-    private static List<String> readAsinListFromFile(String asinFileName) {
-        List<String> asins = new ArrayList<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(asinFileName))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                asins.add(line.trim());
+
+            Integer shard;
+            while (!stopRequested && (shard = shardLeases.claimNextShard(locale, nodeId, generation)) != null) {
+                List<String> asins = shardLeases.loadShardAsins(locale, nodeId, shard);
+                LOGGER.info("Claimed shard " + shard + " of " + job + " with " + asins.size() + " ASINs");
+                boolean completed = false;
+                try {
+                    // The lease replaces the run checkpoint, an unfinished shard is processed again by the next worker
+                    completed = processAsinBatches(asins, scheduler, job, false);
+                } finally {
+                    if (completed) {
+                        shardLeases.completeShard(locale, nodeId, shard, generation);
+                    } else {
+                        shardLeases.release(locale, nodeId, shard);
+                    }
+                }
+                if (!completed) {
+                    // Claiming the released shard again right away would only repeat the failure
+                    LOGGER.warn("Shard " + shard + " of " + job + " was not completed, leaving it to the next run");
+                    return;
+                }
             }
-        } catch (IOException e) {
-            System.out.println("[" + getCurrentTime() + "] " + "Error reading ASIN file: " + e.getMessage());
+            LOGGER.info("No shard of " + job + " left to claim");
+        } catch (IOException | SQLException e) {
+            LOGGER.error("Error crawling " + job + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.warn("Thread interrupted: " + e.getMessage());
         }
-        return asins;
     }
 
-    private static void processProductData(JSONObject product, int winnerCount90, AmazonLocale locale) {
-        try {
-            // Initialize variables to capture each field
-            String title = product.optString("title", "N/A");
-            JSONObject stats = product.optJSONObject("stats");
-            JSONObject fbaFees = product.optJSONObject("fbaFees");
-
-            JSONArray current = stats != null ? stats.optJSONArray("current") : null;
-            JSONArray avg30 = stats != null ? stats.optJSONArray("avg30") : null;
-
-            int monthlySold = product.optInt("monthlySold", 0);
-            JSONArray buyBoxSellerIdHistory = product.optJSONArray("buyBoxSellerIdHistory");
-            JSONObject buyBoxStats = stats != null ? stats.optJSONObject("buyBoxStats") : null;
-            int winnerCount30 = buyBoxStats != null ? buyBoxStats.length() : 0;
-
-            JSONArray buyBoxEligibleOfferCounts = product.optJSONArray("buyBoxEligibleOfferCounts");
-
-            int stockAmazon = stats.optInt("stockAmazon", 0);
-            double pickAndPackFee = fbaFees != null ? fbaFees.optDouble("pickAndPackFee", 0) : 0;
-            double referralFeePercentage = product.optDouble("referralFeePercentage", 0.0);
-            int buyBoxPrice = stats.optInt("buyBoxPrice", 0);
-            double referralFeeBuyBox = buyBoxPrice * (referralFeePercentage / 100);
-
-            JSONArray eanList = product.optJSONArray("eanList");
-            String asin = product.optString("asin");
-            String brand = product.optString("brand");
-            String type = product.optString("type", "N/A");
-
-            // Prepare the seller name lookup asynchronously
-            CompletableFuture<String> sellerNameFuture = CompletableFuture.completedFuture("N/A");
-            if (buyBoxSellerIdHistory != null && buyBoxSellerIdHistory.length() > 0) {
-                String lastSellerId = buyBoxSellerIdHistory.getString(buyBoxSellerIdHistory.length() - 1);
-                sellerNameFuture = fetchSellerName(lastSellerId, locale);
-            }
+    // Returns false when the job was stopped before all ASINs were processed
+    private static boolean processAsinBatches(List<String> jobAsins, RequestScheduler scheduler, LocaleJob job, boolean checkpointed) {
+        AmazonLocale locale = job.getLocale();
+        ProductWriter.Statistics writerStart = getWriter(locale).getStatistics();
 
-            // Collect all fields and save them as variables
-            String sellerName = sellerNameFuture.join();  // wait for the seller name asynchronously
-            double salesCurrent = current != null && current.length() > 3 ? current.getDouble(3) : 0.00;
-            double salesAvg30 = avg30 != null && avg30.length() > 3 ? avg30.getDouble(3) : 0.00;
-            double buyBoxShippingCurrent = current != null && current.length() > 18 ? current.getDouble(18) / 100 : 0.00;
-            double buyBoxShippingAvg30 = avg30 != null && avg30.length() > 18 ? avg30.getDouble(18) / 100 : 0.00;
-            int buyBoxEligibleOfferCount = buyBoxEligibleOfferCounts != null && buyBoxEligibleOfferCounts.length() > 0 ? buyBoxEligibleOfferCounts.getInt(0) : 0;
-            double newPriceCurrent = current != null && current.length() > 1 ? current.getDouble(1) / 100 : 0.00;
-            double newPriceAvg30 = avg30 != null && avg30.length() > 1 ? avg30.getDouble(1) / 100 : 0.00;
-
-            // Insert data into the PostgreSQL database
-            insertProductDataIntoDatabase(locale, title, salesCurrent, salesAvg30, monthlySold, buyBoxShippingCurrent, buyBoxShippingAvg30, sellerName, winnerCount30, winnerCount90, buyBoxEligibleOfferCount, stockAmazon, newPriceCurrent, newPriceAvg30, pickAndPackFee, referralFeePercentage, referralFeeBuyBox, asin, formatEanList(eanList), type, brand);
-
-        } catch (Exception e) {
-            System.out.println("[" + getCurrentTime() + "] " + "Error processing product data: " + e.getMessage());
-        }
-    }
+        List<String> asins = new ArrayList<>(jobAsins);
 
-    // Method to fetch seller name asynchronously
-    public static CompletableFuture<String> fetchSellerName(String lastSellerId, AmazonLocale locale) {
-        // If no seller ID is provided, return "N/A" immediately
-        if (lastSellerId == null || lastSellerId.isEmpty()) {
-            return CompletableFuture.completedFuture("N/A");
+        // Skip the ASINs an interrupted run of this job already committed
+        RunCheckpoint checkpoint = RunCheckpoint.untracked();
+        if (checkpointed) {
+            try {
+                checkpoint = RunCheckpoint.start(connectionPool, locale, job.getCategoryNodeId(), checkpointMaxAgeMs, forceFullRefresh);
+                if (!checkpoint.getCommittedAsins().isEmpty()) {
+                    asins.removeAll(checkpoint.getCommittedAsins());
+                    LOGGER.info("Resuming run " + checkpoint + " of job " + job + ", " + checkpoint.getCommittedAsins().size() + " ASINs already committed");
+                }
+            } catch (SQLException e) {
+                LOGGER.error("Error loading checkpoint, processing all ASINs: " + e.getMessage());
+            }
         }
+        int totalAsins = asins.size();
+        LOGGER.info("Total ASINs to process: " + totalAsins);
+        Collections.reverse(asins);
 
-        // Create request for seller information
-        Request sellerInfoRequest = Request.getSellerRequest(locale, lastSellerId);
-
-        // Retrieve seller information asynchronously
-        return CompletableFuture.supplyAsync(() -> {
+        // The incremental refresh and the change detection only handle products that changed since they were stored
+        ProductIndex productIndex = null;
+        if (pipelineSettings.usesProductIndex()) {
             try {
-                CompletableFuture<String> resultFuture = new CompletableFuture<>();
-                KeepaAPI api = new KeepaAPI(Dotenv.load().get("API_KEY"));
-                api.sendRequest(sellerInfoRequest)
-                    .done(sellerResult -> {
-                        try {
-                            // Parse the JSON response
-                            JSONObject sellerJson = new JSONObject(sellerResult.toString());
-
-                            // Access the sellers object
-                            JSONObject sellers = sellerJson.optJSONObject("sellers");
-
-                            // Ensure that sellers object is not null and has at least one seller
-                            if (sellers != null && sellers.length() > 0) {
-                                // Get the first seller entry (assuming you want the first one)
-                                String firstSellerKey = sellers.keys().next();
-                                JSONObject firstSeller = sellers.getJSONObject(firstSellerKey);
-
-                                // Extract sellerName
-                                String sellerName = firstSeller.optString("sellerName", "N/A");
-                                resultFuture.complete(sellerName);
-                            } else {
-                                resultFuture.complete("N/A");
-                            }
-                        } catch (JSONException e) {
-                            resultFuture.completeExceptionally(new RuntimeException("Error parsing seller info: " + e.getMessage()));
-                        }
-                    })
-                    .fail(failure -> resultFuture.completeExceptionally(new RuntimeException("Error fetching seller info: " + failure)));
-                return resultFuture.join();
-            } catch (Exception e) {
-                return "N/A";
+                productIndex = ProductIndex.load(connectionPool, ProductTable.getTableName(locale), asins);
+                LOGGER.info("Loaded " + productIndex.size() + " stored products of " + locale);
+            } catch (SQLException e) {
+                LOGGER.error("Error loading stored products, processing all ASINs in full: " + e.getMessage());
             }
-        });
-    }
+        }
 
-    // Method to insert the processed product data into the PostgreSQL database
-    private static void insertProductDataIntoDatabase(AmazonLocale locale, String title, double salesCurrent, double salesAvg30, int monthlySold, double buyBoxShippingCurrent, double buyBoxShippingAvg30, String sellerName, int winnerCount30, int winnerCount90, int buyBoxEligibleOfferCount, int stockAmazon, double newPriceCurrent, double newPriceAvg30, double pickAndPackFee, double referralFeePercentage, double referralFeeBuyBox, String asin, String eanList, String type, String brand) {
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-    
+        // Feed the ASIN batches into the pipeline, submit blocks while the stages are busy
+        ProductPipeline pipeline = new ProductPipeline(locale, job.getCategoryNodeId(), scheduler, sellerCache, responseArchive, getWriter(locale), pipelineSettings, productIndex, checkpoint);
+        boolean completed = false;
+        boolean drained = false;
         try {
-            // Load environment variables
-            Dotenv dotenv = Dotenv.load();
-            String dbUrl = dotenv.get("DB_URL");
-            String dbUser = dotenv.get("DB_USER");
-            String dbPassword = dotenv.get("DB_PASSWORD");
-            String schemaName = dotenv.get("DB_SCHEMA");
-    
-            // Establish the database connection
-            connection = DriverManager.getConnection(dbUrl, dbUser, dbPassword);
-    
-            // Set the schema for this session
-            setSchemaForSession(connection, schemaName);
-    
-            // Determine the table name based on the locale
-            String tableName = "products_" + locale.toString().toLowerCase();
-    
-            // Create the table if it doesn't exist
-            createTableIfNotExists(connection, tableName);
-    
-            // Prepare the SQL UPSERT statement
-            String sql = "INSERT INTO " + tableName + " (title, sales_current, sales_avg30, monthly_sold, buy_box_shipping_current, buy_box_shipping_avg30, seller_name, winner_count_30, winner_count_90, buy_box_eligible_offer_count, stock_amazon, new_price_current, new_price_avg30, fba_fees, referral_fee_percentage, referral_buybox_fee, asin, ean_list, type, brand, last_updated) "
-                       + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) "
-                       + "ON CONFLICT (asin) DO UPDATE "
-                       + "SET title = EXCLUDED.title, sales_current = EXCLUDED.sales_current, sales_avg30 = EXCLUDED.sales_avg30, monthly_sold = EXCLUDED.monthly_sold, "
-                       + "buy_box_shipping_current = EXCLUDED.buy_box_shipping_current, buy_box_shipping_avg30 = EXCLUDED.buy_box_shipping_avg30, seller_name = EXCLUDED.seller_name, "
-                       + "winner_count_30 = EXCLUDED.winner_count_30, winner_count_90 = EXCLUDED.winner_count_90, buy_box_eligible_offer_count = EXCLUDED.buy_box_eligible_offer_count, "
-                       + "stock_amazon = EXCLUDED.stock_amazon, new_price_current = EXCLUDED.new_price_current, new_price_avg30 = EXCLUDED.new_price_avg30, fba_fees = EXCLUDED.fba_fees, "
-                       + "referral_fee_percentage = EXCLUDED.referral_fee_percentage, referral_buybox_fee = EXCLUDED.referral_buybox_fee, ean_list = EXCLUDED.ean_list, type = EXCLUDED.type, "
-                       + "brand = EXCLUDED.brand, last_updated = NOW()";
-    
-            preparedStatement = connection.prepareStatement(sql);
-    
-            // Set the values for the PreparedStatement
-            preparedStatement.setString(1, title);
-            preparedStatement.setDouble(2, salesCurrent);
-            preparedStatement.setDouble(3, salesAvg30);
-            preparedStatement.setInt(4, monthlySold);
-            preparedStatement.setDouble(5, buyBoxShippingCurrent);
-            preparedStatement.setDouble(6, buyBoxShippingAvg30);
-            preparedStatement.setString(7, sellerName);
-            preparedStatement.setInt(8, winnerCount30);
-            preparedStatement.setInt(9, winnerCount90);
-            preparedStatement.setInt(10, buyBoxEligibleOfferCount);
-            if (stockAmazon == -2) {
-                preparedStatement.setNull(11, java.sql.Types.INTEGER);
+            int submitted = 0;
+            while (submitted < totalAsins && !stopRequested) {
+                int end = Math.min(submitted + BATCH_SIZE, totalAsins);
+                pipeline.submit(new ArrayList<>(asins.subList(submitted, end)));
+                submitted = end;
+            }
+
+            // Wait until every batch has been written before the job counts as done
+            pipeline.finish();
+            drained = true;
+            if (submitted < totalAsins) {
+                // A stopped run stays open so the next start resumes from its checkpoints
+                LOGGER.info("Stopped job " + job + " after " + submitted + " of " + totalAsins + " ASINs");
+            } else if (pipeline.getFailures() > 0 || checkpoint.getFailedAsins() > 0) {
+                // The next start retries the ASINs that were not stored
+                LOGGER.warn("Leaving run " + checkpoint + " of job " + job + " open: " + pipeline.getFailures() + " failed batches or products, " + checkpoint.getFailedAsins() + " ASINs not stored");
             } else {
-                preparedStatement.setInt(11, stockAmazon);
+                completed = true;
+                checkpoint.finish();
             }
-            preparedStatement.setDouble(12, newPriceCurrent);
-            preparedStatement.setDouble(13, newPriceAvg30);
-            preparedStatement.setDouble(14, pickAndPackFee / 100);  // Convert cents to Euros
-            preparedStatement.setDouble(15, referralFeePercentage);
-            preparedStatement.setDouble(16, Math.round((referralFeeBuyBox / 100) * 100.0) / 100.0); // Convert cents to Euros
-            preparedStatement.setString(17, asin);
-            preparedStatement.setString(18, eanList);
-            preparedStatement.setString(19, type);
-            preparedStatement.setString(20, brand);
-            preparedStatement.setTimestamp(21, new java.sql.Timestamp(System.currentTimeMillis()));  // Add current timestamp for last_updated field
-    
-            // Execute the upsert operation
-            preparedStatement.executeUpdate();
-    
-            System.out.println("[" + getCurrentTime() + "] " + "Product data upserted successfully into table: " + tableName);
-    
         } catch (SQLException e) {
-            System.out.println("[" + getCurrentTime() + "] " + "Error inserting product data into database: " + e.getMessage());
+            LOGGER.error("Error finishing run " + checkpoint + ": " + e.getMessage());
+        } catch (IllegalStateException e) {
+            // The run stays open like a stopped one
+            LOGGER.error("Pipeline of job " + job + " failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.warn("Thread interrupted: " + e.getMessage());
         } finally {
-            // Close the resources
-            if (preparedStatement != null) {
-                try {
-                    preparedStatement.close();
-                } catch (SQLException e) {
-                    e.printStackTrace();
-                }
-            }
-            if (connection != null) {
-                try {
-                    connection.close();
-                } catch (SQLException e) {
-                    e.printStackTrace();
-                }
+            // The stage threads are not daemons, a pipeline that was not drained would keep the JVM running
+            if (!drained) {
+                pipeline.cancel("job " + job + " stopped before the pipeline was drained");
             }
         }
+        LOGGER.info("Finished locale " + locale + ": " + getWriter(locale).getStatistics().since(writerStart));
+        LOGGER.info("Seller cache: " + sellerCache.getStatistics());
+        return completed;
     }
 
-    private static void createTableIfNotExists(Connection connection, String tableName) throws SQLException {
-        String createTableSQL = "CREATE TABLE IF NOT EXISTS " + tableName + " ("
-            + "title TEXT, "
-            + "sales_current DOUBLE PRECISION, "
-            + "sales_avg30 DOUBLE PRECISION, "
-            + "monthly_sold INT, "
-            + "buy_box_shipping_current DOUBLE PRECISION, "
-            + "buy_box_shipping_avg30 DOUBLE PRECISION, "
-            + "seller_name TEXT, "
-            + "winner_count_30 INT, "
-            + "winner_count_90 INT, "
-            + "buy_box_eligible_offer_count INT, "
-            + "stock_amazon INT, "
-            + "new_price_current DOUBLE PRECISION, "
-            + "new_price_avg30 DOUBLE PRECISION, "
-            + "fba_fees DOUBLE PRECISION, "
-            + "referral_fee_percentage DOUBLE PRECISION, "
-            + "referral_buybox_fee DOUBLE PRECISION, "
-            + "asin VARCHAR(20) PRIMARY KEY, "
-            + "ean_list TEXT, "
-            + "type TEXT, "
-            + "brand TEXT, "
-            + "last_updated TIMESTAMP"
-            + ");";
-    
-        try (PreparedStatement preparedStatement = connection.prepareStatement(createTableSQL)) {
-            preparedStatement.execute();
+    // Old data is removed once per refresh of a job, before its batches are written
+    private static void applyRetention(AmazonLocale locale) {
+        // The COPY mode deletes old data when the writer finishes, with the merge or on its own when nothing was staged
+        if (!copyWriteMode) {
+            deleteOldData(locale);
+        }
+        if (historyEnabled) {
+            dropOldHistory(locale);
         }
     }
-       
-    // Method to format EAN list as a single string with spaces
-    private static String formatEanList(JSONArray eanList) {
-        StringBuilder eanStringBuilder = new StringBuilder();
-        if (eanList != null && eanList.length() > 0) {
-            for (int i = 0; i < eanList.length(); i++) {
-                eanStringBuilder.append(eanList.getString(i));
-                if (i < eanList.length() - 1) {
-                    eanStringBuilder.append(", ");
-                }
+
+    // History is dropped by whole monthly partitions instead of deleting rows
+    private static void dropOldHistory(AmazonLocale locale) {
+        PooledConnection connection = null;
+        try {
+            connection = connectionPool.acquire();
+            String tableName = ProductHistoryTable.getTableName(locale);
+            YearMonth oldestKept = YearMonth.now().minusMonths(historyRetentionMonths);
+            List<String> dropped = ProductHistoryTable.dropPartitionsBefore(connection.getConnection(), tableName, oldestKept);
+            connectionPool.release(connection);
+            connection = null;
+            if (!dropped.isEmpty()) {
+                LOGGER.info("Dropped history partitions " + dropped + " of table: " + tableName);
+            }
+        } catch (SQLException e) {
+            LOGGER.error("Error dropping old history partitions: " + e.getMessage());
+        } finally {
+            // A connection that is still held here failed and is not reused
+            if (connection != null) {
+                connectionPool.discard(connection);
             }
         }
-        return eanStringBuilder.toString();
     }
 
     private static void deleteOldData(AmazonLocale locale) {
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-    
+        PooledConnection connection = null;
         try {
-            // Load environment variables
-            Dotenv dotenv = Dotenv.load();
-            String dbUrl = dotenv.get("DB_URL");
-            String dbUser = dotenv.get("DB_USER");
-            String dbPassword = dotenv.get("DB_PASSWORD");
-            String schemaName = dotenv.get("DB_SCHEMA");
-    
-            // Establish the database connection
-            connection = DriverManager.getConnection(dbUrl, dbUser, dbPassword);
-    
-            // Set the schema for this session
-            setSchemaForSession(connection, schemaName);
-    
+            connection = connectionPool.acquire();
             // Determine the table name based on the locale
-            String tableName = "products_" + locale.toString().toLowerCase();
-    
+            String tableName = ProductTable.getTableName(locale);
             // Prepare the SQL DELETE statement
-            String sql = "DELETE FROM " + tableName + " WHERE last_updated < NOW() - INTERVAL '30 days'";
-    
-            preparedStatement = connection.prepareStatement(sql);
-    
+            String sql = ProductTable.getDeleteOldDataSql(tableName);
             // Execute the delete operation
-            int rowsDeleted = preparedStatement.executeUpdate();
-            System.out.println("[" + getCurrentTime() + "] " + "Deleted " + rowsDeleted + " old records from table: " + tableName);
-    
+            int rowsDeleted = connection.prepare(sql).executeUpdate();
+            connectionPool.release(connection);
+            connection = null;
+            LOGGER.info("Deleted " + rowsDeleted + " old records from table: " + tableName);
         } catch (SQLException e) {
-            System.out.println("[" + getCurrentTime() + "] " + "Error deleting old data from database: " + e.getMessage());
+            LOGGER.error("Error deleting old data from database: " + e.getMessage());
         } finally {
-            // Close the resources
-            if (preparedStatement != null) {
-                try {
-                    preparedStatement.close();
-                } catch (SQLException e) {
-                    e.printStackTrace();
-                }
-            }
+            // A connection that is still held here failed and is not reused
             if (connection != null) {
-                try {
-                    connection.close();
-                } catch (SQLException e) {
-                    e.printStackTrace();
-                }
+                connectionPool.discard(connection);
             }
         }
     }
-
-    private static void setSchemaForSession(Connection connection, String schemaName) throws SQLException {
-        try (Statement statement = connection.createStatement()) {
-            // Set the schema for the session
-            String sql = "SET search_path TO " + schemaName;
-            statement.execute(sql);
-        }
-    }      
 }
@@ -0,0 +1,93 @@
+package test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import com.keepa.api.backend.structs.AmazonLocale;
+import com.keepa.api.backend.structs.Request;
+import com.keepa.api.backend.structs.Response;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Collects the ASIN space of a category from the best-seller lists of its sub-categories.
+ *
+ * The root node is expanded breadth first with category lookups, up to the
+ * configured depth and number of nodes. The best-seller lists of all collected
+ * nodes are requested together and merged in node order, an ASIN listed under
+ * several nodes is kept once at its first position.
+ */
+public class CategoryCrawler {
+    private static final Logger LOGGER = LogManager.getLogger(CategoryCrawler.class);
+    private static final int CATEGORIES_PER_REQUEST = 10;  // Keepa accepts up to 10 category IDs per lookup
+    private static final int CATEGORY_TOKEN_COST = 1;
+    private static final int BEST_SELLERS_TOKEN_COST = 50;
+
+    private final RequestScheduler scheduler;
+    private final int maxDepth;
+    private final int maxNodes;
+
+    public CategoryCrawler(RequestScheduler scheduler, int maxDepth, int maxNodes) {
+        this.scheduler = scheduler;
+        this.maxDepth = maxDepth;
+        this.maxNodes = maxNodes;
+    }
+
+    // The deduplicated ASINs of the best-seller lists of the root node and its sub-categories
+    public List<String> collectAsins(AmazonLocale locale, long rootNodeId) throws IOException {
+        List<Long> nodes = expand(locale, rootNodeId);
+
+        List<CompletableFuture<Response>> bestSellersFutures = new ArrayList<>(nodes.size());
+        for (long nodeId : nodes) {
+            bestSellersFutures.add(scheduler.submit(Request.getBestSellersRequest(locale, nodeId), BEST_SELLERS_TOKEN_COST));
+        }
+
+        Set<String> asins = new LinkedHashSet<>();
+        int listed = 0;
+        for (int i = 0; i < nodes.size(); i++) {
+            try {
+                List<String> nodeAsins = KeepaResponseParser.parseAsinList(bestSellersFutures.get(i).join());
+                listed += nodeAsins.size();
+                asins.addAll(nodeAsins);
+            } catch (RuntimeException e) {
+                // A node without a best-seller list does not stop the others
+                LOGGER.error("Error fetching best sellers of node " + nodes.get(i) + ": " + e.getMessage());
+            }
+        }
+        LOGGER.info("Collected " + asins.size() + " ASINs of " + locale + " " + rootNodeId + " from " + nodes.size() + " best-seller lists, " + (listed - asins.size()) + " duplicates removed");
+        return new ArrayList<>(asins);
+    }
+
+    // The root node and its sub-categories, breadth first
+    List<Long> expand(AmazonLocale locale, long rootNodeId) throws IOException {
+        Set<Long> nodes = new LinkedHashSet<>(Collections.singletonList(rootNodeId));
+        List<Long> level = Collections.singletonList(rootNodeId);
+        for (int depth = 0; depth < maxDepth && !level.isEmpty() && nodes.size() < maxNodes; depth++) {
+            List<Long> nextLevel = new ArrayList<>();
+            for (int start = 0; start < level.size() && nodes.size() < maxNodes; start += CATEGORIES_PER_REQUEST) {
+                List<Long> batch = level.subList(start, Math.min(start + CATEGORIES_PER_REQUEST, level.size()));
+                Request lookupRequest = Request.getCategoryLookupRequest(locale, false, batch.toArray(new Long[0]));
+                Map<Long, List<Long>> children = KeepaResponseParser.parseCategoryChildren(scheduler.submit(lookupRequest, CATEGORY_TOKEN_COST).join());
+                for (long nodeId : batch) {
+                    for (long childId : children.getOrDefault(nodeId, Collections.emptyList())) {
+                        if (nodes.size() >= maxNodes) {
+                            break;
+                        }
+                        if (nodes.add(childId)) {
+                            nextLevel.add(childId);
+                        }
+                    }
+                }
+            }
+            level = nextLevel;
+        }
+        return new ArrayList<>(nodes);
+    }
+}
@@ -0,0 +1,157 @@
+package test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+/**
+ * Bounded pool of PostgreSQL connections shared by all database writes.
+ *
+ * Connections are opened lazily up to the configured size, get the schema set
+ * once when they are opened and are reused afterwards. Callers block when every
+ * connection is in use, for at most the acquire timeout.
+ */
+public class ConnectionPool implements AutoCloseable {
+    private static final int DEFAULT_POOL_SIZE = 4;
+    private static final long DEFAULT_ACQUIRE_TIMEOUT_SECONDS = 120;
+    // A discarded connection frees a slot without waking anyone, waiters look again this often
+    private static final long POLL_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    // Creates a table on a pooled connection
+    public interface TableInitializer {
+        void create(PooledConnection connection) throws SQLException;
+    }
+
+    private final String dbUrl;
+    private final String dbUser;
+    private final String dbPassword;
+    private final String schemaName;
+    private final int maxSize;
+    private final long acquireTimeoutNanos;
+
+    private final BlockingQueue<PooledConnection> idle = new LinkedBlockingQueue<>();
+    private final AtomicInteger opened = new AtomicInteger();
+    private final Set<String> readyTables = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed = false;
+
+    public ConnectionPool(String dbUrl, String dbUser, String dbPassword, String schemaName, int maxSize) {
+        this(dbUrl, dbUser, dbPassword, schemaName, maxSize, TimeUnit.SECONDS.toMillis(DEFAULT_ACQUIRE_TIMEOUT_SECONDS));
+    }
+
+    public ConnectionPool(String dbUrl, String dbUser, String dbPassword, String schemaName, int maxSize, long acquireTimeoutMs) {
+        this.dbUrl = dbUrl;
+        this.dbUser = dbUser;
+        this.dbPassword = dbPassword;
+        this.schemaName = schemaName;
+        this.maxSize = maxSize;
+        this.acquireTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(acquireTimeoutMs);
+    }
+
+    public static ConnectionPool fromEnv(Dotenv dotenv) {
+        int poolSize = Integer.parseInt(dotenv.get("DB_POOL_SIZE", String.valueOf(DEFAULT_POOL_SIZE)));
+        long acquireTimeoutMs = TimeUnit.SECONDS.toMillis(Long.parseLong(dotenv.get("DB_ACQUIRE_TIMEOUT_SECONDS", String.valueOf(DEFAULT_ACQUIRE_TIMEOUT_SECONDS))));
+        return new ConnectionPool(dotenv.get("DB_URL"), dotenv.get("DB_USER"), dotenv.get("DB_PASSWORD"), dotenv.get("DB_SCHEMA"), poolSize, acquireTimeoutMs);
+    }
+
+    public PooledConnection acquire() throws SQLException {
+        long deadline = System.nanoTime() + acquireTimeoutNanos;
+        while (true) {
+            if (closed) {
+                throw new SQLException("Connection pool is closed");
+            }
+            PooledConnection connection = idle.poll();
+            if (connection != null) {
+                return connection;
+            }
+
+            // Open a new connection while the pool has not reached its size
+            int current = opened.get();
+            if (current < maxSize) {
+                if (opened.compareAndSet(current, current + 1)) {
+                    try {
+                        return open();
+                    } catch (SQLException e) {
+                        opened.decrementAndGet();
+                        throw e;
+                    }
+                }
+                continue;
+            }
+
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new SQLException("Timed out after " + TimeUnit.NANOSECONDS.toSeconds(acquireTimeoutNanos) + " s waiting for a database connection, all " + maxSize + " are in use");
+            }
+            try {
+                connection = idle.poll(Math.min(remaining, POLL_INTERVAL_NANOS), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a database connection", e);
+            }
+            if (connection != null) {
+                if (closed) {
+                    discard(connection);
+                    throw new SQLException("Connection pool is closed");
+                }
+                return connection;
+            }
+        }
+    }
+
+    public void release(PooledConnection connection) {
+        if (closed) {
+            discard(connection);
+            return;
+        }
+        idle.offer(connection);
+    }
+
+    // Drop a connection that failed, a new one is opened on the next acquire
+    public void discard(PooledConnection connection) {
+        opened.decrementAndGet();
+        connection.close();
+    }
+
+    // Run the table creation once per table for the lifetime of the pool
+    public void ensureTable(PooledConnection connection, String tableName, TableInitializer initializer) throws SQLException {
+        if (readyTables.contains(tableName)) {
+            return;
+        }
+        synchronized (readyTables) {
+            if (!readyTables.contains(tableName)) {
+                initializer.create(connection);
+                readyTables.add(tableName);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        PooledConnection connection;
+        while ((connection = idle.poll()) != null) {
+            discard(connection);
+        }
+    }
+
+    private PooledConnection open() throws SQLException {
+        Connection connection = DriverManager.getConnection(dbUrl, dbUser, dbPassword);
+        try (Statement statement = connection.createStatement()) {
+            // Set the schema once for the whole session
+            statement.execute("SET search_path TO " + schemaName);
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+        return new PooledConnection(connection);
+    }
+}
@@ -0,0 +1,239 @@
+package test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+/**
+ * Bulk load variant of the {@link ProductWriter} for full-category refreshes.
+ *
+ * Batches are streamed with COPY into a temporary staging table that lives on
+ * one connection for the whole run. {@link #finish()} merges the staging table
+ * into products_&lt;locale&gt; and deletes the rows older than 30 days in a
+ * single transaction. A run that staged nothing still deletes the old rows. History rows and checkpoints of staged rows are written
+ * with the merge, so a run that dies before it only resumes from earlier merges.
+ * Staged rows that are lost with a failed merge or a broken staging connection
+ * are counted as failed rows, also in the failures of their runs.
+ */
+public class CopyProductWriter extends ProductWriter {
+    private static final Logger LOGGER = LogManager.getLogger(CopyProductWriter.class);
+
+    private PooledConnection connection;
+    private final Map<RunCheckpoint, List<String>> stagedCheckpoints = new HashMap<>();
+    private final Set<YearMonth> stagedHistoryMonths = new HashSet<>();
+    private int stagedRows;
+
+    public CopyProductWriter(ConnectionPool connectionPool, String tableName, String historyTableName, int batchSize, long flushIntervalMs) {
+        super(connectionPool, tableName, historyTableName, batchSize, flushIntervalMs);
+    }
+
+    @Override
+    protected void writeRows(List<ProductRow> rows, Map<RunCheckpoint, List<String>> checkpoints) throws SQLException {
+        try {
+            PooledConnection stagingConnection = getStagingConnection();
+            String copySql = "COPY " + ProductTable.getStagingTableName(tableName) + " (" + ProductTable.COLUMNS + ") FROM STDIN WITH (FORMAT csv)";
+            CopyManager copyManager = stagingConnection.getConnection().unwrap(PGConnection.class).getCopyAPI();
+            Timestamp lastUpdated = new Timestamp(System.currentTimeMillis());
+            copyManager.copyIn(copySql, new StringReader(toCsv(rows, lastUpdated)));
+            if (historyTableName != null) {
+                String historyCopySql = "COPY " + ProductTable.getStagingTableName(historyTableName) + " (" + ProductHistoryTable.COLUMNS + ") FROM STDIN WITH (FORMAT csv)";
+                copyManager.copyIn(historyCopySql, new StringReader(toHistoryCsv(rows, lastUpdated)));
+                stagedHistoryMonths.add(YearMonth.from(lastUpdated.toLocalDateTime()));
+            }
+            for (Map.Entry<RunCheckpoint, List<String>> checkpoint : checkpoints.entrySet()) {
+                stagedCheckpoints.computeIfAbsent(checkpoint.getKey(), c -> new ArrayList<>()).addAll(checkpoint.getValue());
+            }
+            stagedRows += rows.size();
+        } catch (SQLException | IOException e) {
+            dropStagingConnection();
+            throw e instanceof SQLException ? (SQLException) e : new SQLException("Error streaming rows to staging table: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void finish() {
+        flush();
+        synchronized (writeLock) {
+            mergeStagingTable();
+        }
+    }
+
+    private void mergeStagingTable() {
+        // Nothing was staged, the old rows are still deleted once per run
+        if (connection == null) {
+            deleteOldData();
+            return;
+        }
+
+        try {
+            for (YearMonth month : stagedHistoryMonths) {
+                ProductHistoryTable.ensurePartition(connectionPool, connection, historyTableName, month);
+            }
+
+            connection.getConnection().setAutoCommit(false);
+            int rowsMerged = connection.prepare(ProductTable.getMergeSql(tableName)).executeUpdate();
+            int rowsDeleted = connection.prepare(ProductTable.getDeleteOldDataSql(tableName)).executeUpdate();
+            connection.prepare("TRUNCATE " + ProductTable.getStagingTableName(tableName)).executeUpdate();
+            if (historyTableName != null) {
+                String historyStagingTable = ProductTable.getStagingTableName(historyTableName);
+                connection.prepare("INSERT INTO " + historyTableName + " (" + ProductHistoryTable.COLUMNS + ") SELECT " + ProductHistoryTable.COLUMNS + " FROM " + historyStagingTable).executeUpdate();
+                connection.prepare("TRUNCATE " + historyStagingTable).executeUpdate();
+            }
+            for (Map.Entry<RunCheckpoint, List<String>> checkpoint : stagedCheckpoints.entrySet()) {
+                checkpoint.getKey().record(connection, checkpoint.getValue());
+            }
+            connection.getConnection().commit();
+            connection.getConnection().setAutoCommit(true);
+            stagedCheckpoints.clear();
+            stagedHistoryMonths.clear();
+            stagedRows = 0;
+
+            LOGGER.info("Merged " + rowsMerged + " staged products and deleted " + rowsDeleted + " old records in table: " + tableName);
+            connectionPool.release(connection);
+            connection = null;
+        } catch (SQLException e) {
+            LOGGER.error("Error merging staged products into table " + tableName + ": " + e.getMessage());
+            dropStagingConnection();
+        }
+    }
+
+    private void deleteOldData() {
+        PooledConnection deleteConnection = null;
+        try {
+            deleteConnection = connectionPool.acquire();
+            int rowsDeleted = deleteConnection.prepare(ProductTable.getDeleteOldDataSql(tableName)).executeUpdate();
+            connectionPool.release(deleteConnection);
+            deleteConnection = null;
+            LOGGER.info("Deleted " + rowsDeleted + " old records from table: " + tableName);
+        } catch (SQLException e) {
+            LOGGER.error("Error deleting old data from table " + tableName + ": " + e.getMessage());
+        } finally {
+            // A connection that is still held here failed and is not reused
+            if (deleteConnection != null) {
+                connectionPool.discard(deleteConnection);
+            }
+        }
+    }
+
+    // The staging table is session-local, so all batches of a run use the same connection
+    private PooledConnection getStagingConnection() throws SQLException {
+        if (connection == null) {
+            PooledConnection stagingConnection = connectionPool.acquire();
+            try {
+                connectionPool.ensureTable(stagingConnection, tableName, c -> ProductTable.createTableIfNotExists(c.getConnection(), tableName));
+                ProductTable.createStagingTable(stagingConnection.getConnection(), tableName);
+                if (historyTableName != null) {
+                    // The parent table has to exist before the staging table can copy its columns
+                    ProductHistoryTable.ensurePartition(connectionPool, stagingConnection, historyTableName, YearMonth.now());
+                    ProductTable.createStagingTable(stagingConnection.getConnection(), historyTableName);
+                }
+            } catch (SQLException e) {
+                connectionPool.discard(stagingConnection);
+                throw e;
+            }
+            connection = stagingConnection;
+        }
+        return connection;
+    }
+
+    // The staged rows are lost with the connection, and so are their checkpoints
+    private void dropStagingConnection() {
+        if (stagedRows > 0) {
+            recordFailedRows(stagedRows);
+            LOGGER.error("Lost " + stagedRows + " staged products of table " + tableName);
+            stagedRows = 0;
+        }
+        for (Map.Entry<RunCheckpoint, List<String>> checkpoint : stagedCheckpoints.entrySet()) {
+            checkpoint.getKey().recordFailed(checkpoint.getValue().size());
+        }
+        stagedCheckpoints.clear();
+        stagedHistoryMonths.clear();
+        if (connection != null) {
+            connectionPool.discard(connection);
+            connection = null;
+        }
+    }
+
+    // Encode the rows in the column order of ProductTable.COLUMNS, empty unquoted fields are NULL
+    private static String toCsv(List<ProductRow> rows, Timestamp lastUpdated) {
+        StringBuilder csv = new StringBuilder(rows.size() * 256);
+        for (ProductRow row : rows) {
+            appendText(csv, row.title).append(',');
+            csv.append(row.salesCurrent).append(',');
+            csv.append(row.salesAvg30).append(',');
+            csv.append(row.monthlySold).append(',');
+            csv.append(row.buyBoxShippingCurrent).append(',');
+            csv.append(row.buyBoxShippingAvg30).append(',');
+            appendText(csv, row.sellerName).append(',');
+            csv.append(row.winnerCount30).append(',');
+            csv.append(row.winnerCount90).append(',');
+            csv.append(row.buyBoxEligibleOfferCount).append(',');
+            if (row.hasStockAmazon()) {
+                csv.append(row.stockAmazon);
+            }
+            csv.append(',');
+            csv.append(row.newPriceCurrent).append(',');
+            csv.append(row.newPriceAvg30).append(',');
+            csv.append(row.getFbaFeeEuros()).append(',');
+            csv.append(row.referralFeePercentage).append(',');
+            csv.append(row.getReferralFeeBuyBoxEuros()).append(',');
+            appendText(csv, row.asin).append(',');
+            appendText(csv, row.eanList).append(',');
+            appendText(csv, row.type).append(',');
+            appendText(csv, row.brand).append(',');
+            csv.append(lastUpdated).append(',');
+            csv.append(row.lastUpdate).append(',');
+            csv.append(row.lastPriceChange).append(',');
+            csv.append(row.contentHash).append(',');
+            csv.append(row.categoryNodeId).append('\n');
+        }
+        return csv.toString();
+    }
+
+    // Encode the rows in the column order of ProductHistoryTable.COLUMNS
+    private static String toHistoryCsv(List<ProductRow> rows, Timestamp fetchedAt) {
+        StringBuilder csv = new StringBuilder(rows.size() * 64);
+        for (ProductRow row : rows) {
+            appendText(csv, row.asin).append(',');
+            csv.append(fetchedAt).append(',');
+            csv.append(row.salesCurrent).append(',');
+            csv.append(row.newPriceCurrent).append(',');
+            csv.append(row.buyBoxShippingCurrent).append(',');
+            if (row.hasStockAmazon()) {
+                csv.append(row.stockAmazon);
+            }
+            csv.append(',');
+            csv.append(row.winnerCount30).append(',');
+            csv.append(row.winnerCount90).append('\n');
+        }
+        return csv.toString();
+    }
+
+    private static StringBuilder appendText(StringBuilder csv, String value) {
+        if (value == null) {
+            return csv;
+        }
+        csv.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                csv.append('"');
+            }
+            csv.append(c);
+        }
+        return csv.append('"');
+    }
+}
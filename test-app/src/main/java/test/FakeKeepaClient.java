@@ -0,0 +1,268 @@
+package test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.keepa.api.backend.structs.Request;
+import com.keepa.api.backend.structs.Response;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+/**
+ * Offline stand-in for the Keepa API, for load tests without network or tokens.
+ *
+ * Product requests are answered with the products of a recorded response, each
+ * one renamed to a requested ASIN. Best-seller requests get a synthetic list
+ * of the configured size, seller requests made-up names and category lookups
+ * the configured number of synthetic sub-categories. Tokens are spent and
+ * refilled once per minute like Keepa does, a request sent with no tokens left
+ * gets NOT_ENOUGH_TOKEN, the status of Keepa's 429. Responses arrive after the
+ * configured latency.
+ */
+public class FakeKeepaClient implements KeepaClient {
+    // Relative to test-app, the directory the application is started from
+    private static final String DEFAULT_FIXTURE = "src/test/resources/fixtures/product.json";
+    private static final String ASIN_PLACEHOLDER = "FAKE_ASIN_PLACEHOLDER";
+    private static final int BEST_SELLERS_TOKEN_COST = 50;
+    private static final int CATEGORY_TOKEN_COST = 1;
+    private static final long ASIN_SPACE = 101_559_956_668_416L; // 36^9
+
+    private final List<String> productTemplates;
+    private final int refillRate;
+    private final int maxTokens;
+    private final long latencyMs;
+    private final long latencyJitterMs;
+    private final double rateLimitRate;
+    private final int bestSellersSize;
+    private final int subcategories;
+    private final ScheduledExecutorService executor;
+
+    private int tokensLeft;
+    private long lastRefillMinute;
+
+    public FakeKeepaClient(List<String> productTemplates, int refillRate, int initialTokens, long latencyMs, long latencyJitterMs, double rateLimitRate, int bestSellersSize, int subcategories) {
+        this.productTemplates = productTemplates;
+        this.refillRate = refillRate;
+        this.maxTokens = refillRate * 60;
+        this.latencyMs = latencyMs;
+        this.latencyJitterMs = latencyJitterMs;
+        this.rateLimitRate = rateLimitRate;
+        this.bestSellersSize = bestSellersSize;
+        this.subcategories = subcategories;
+        this.tokensLeft = initialTokens;
+        this.lastRefillMinute = currentMinute();
+        this.executor = Executors.newScheduledThreadPool(2, r -> {
+            Thread thread = new Thread(r, "fake-keepa");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static FakeKeepaClient fromEnv(Dotenv dotenv) throws IOException {
+        int refillRate = Integer.parseInt(dotenv.get("FAKE_KEEPA_REFILL_RATE", "20"));
+        // The fixtures are not packaged with the application, they are read from the file system
+        Path fixture = Paths.get(dotenv.get("FAKE_KEEPA_FIXTURE", DEFAULT_FIXTURE));
+        if (!Files.isRegularFile(fixture)) {
+            throw new IOException("Fixture not found: " + fixture.toAbsolutePath());
+        }
+        return new FakeKeepaClient(
+            loadProductTemplates(new String(Files.readAllBytes(fixture), StandardCharsets.UTF_8)),
+            refillRate,
+            Integer.parseInt(dotenv.get("FAKE_KEEPA_TOKENS", String.valueOf(refillRate * 60))),
+            Long.parseLong(dotenv.get("FAKE_KEEPA_LATENCY_MS", "300")),
+            Long.parseLong(dotenv.get("FAKE_KEEPA_LATENCY_JITTER_MS", "200")),
+            Double.parseDouble(dotenv.get("FAKE_KEEPA_RATE_LIMIT_RATE", "0")),
+            Integer.parseInt(dotenv.get("FAKE_KEEPA_BEST_SELLERS", "10000")),
+            Integer.parseInt(dotenv.get("FAKE_KEEPA_SUBCATEGORIES", "5")));
+    }
+
+    // Every product of a recorded product response becomes a template with a placeholder ASIN
+    public static List<String> loadProductTemplates(String productResponseJson) {
+        JsonArray products = JsonParser.parseString(productResponseJson).getAsJsonObject().getAsJsonArray("products");
+        List<String> templates = new ArrayList<>();
+        if (products != null) {
+            for (JsonElement product : products) {
+                JsonObject template = product.getAsJsonObject().deepCopy();
+                template.addProperty("asin", ASIN_PLACEHOLDER);
+                templates.add(template.toString());
+            }
+        }
+        if (templates.isEmpty()) {
+            throw new IllegalArgumentException("The fixture contains no products");
+        }
+        return Collections.unmodifiableList(templates);
+    }
+
+    @Override
+    public CompletableFuture<Response> send(Request request) {
+        FakeResponse response = respond(request);
+        long delay = latencyMs + (latencyJitterMs > 0 ? ThreadLocalRandom.current().nextLong(latencyJitterMs + 1) : 0);
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        executor.schedule(() -> future.complete(response), delay, TimeUnit.MILLISECONDS);
+        return future;
+    }
+
+    private FakeResponse respond(Request request) {
+        if (!"product".equals(request.path) && !"bestsellers".equals(request.path) && !"seller".equals(request.path) && !"category".equals(request.path)) {
+            return spend(Response.ResponseStatus.REQUEST_REJECTED, 0, "");
+        }
+
+        // Keepa serves any request while the balance is positive and lets it go negative
+        synchronized (this) {
+            refill();
+            if (tokensLeft <= 0 || ThreadLocalRandom.current().nextDouble() < rateLimitRate) {
+                return spend(Response.ResponseStatus.NOT_ENOUGH_TOKEN, 0, "");
+            }
+        }
+
+        switch (request.path) {
+            case "product":
+                List<String> asins = split(request.parameter.get("asin"));
+                String offers = request.parameter.get("offers");
+                int cost = RequestScheduler.estimateProductCost(asins.size(), offers != null ? Integer.parseInt(offers) : 0);
+                return spend(Response.ResponseStatus.OK, cost, productsBody(asins));
+            case "bestsellers":
+                return spend(Response.ResponseStatus.OK, BEST_SELLERS_TOKEN_COST, bestSellersBody(Long.parseLong(request.parameter.get("category"))));
+            case "category":
+                return spend(Response.ResponseStatus.OK, CATEGORY_TOKEN_COST, categoriesBody(split(request.parameter.get("category"))));
+            default:
+                List<String> sellerIds = split(request.parameter.get("seller"));
+                return spend(Response.ResponseStatus.OK, sellerIds.size(), sellersBody(sellerIds));
+        }
+    }
+
+    private FakeResponse spend(Response.ResponseStatus status, int cost, String body) {
+        FakeResponse response = new FakeResponse();
+        synchronized (this) {
+            refill();
+            tokensLeft -= cost;
+            response.tokensLeft = tokensLeft;
+            response.refillIn = (int) ((lastRefillMinute + 1) * 60_000 - System.currentTimeMillis());
+        }
+        response.status = status;
+        response.timestamp = System.currentTimeMillis();
+        response.tokensConsumed = cost;
+        response.refillRate = refillRate;
+        response.json = "{\"timestamp\":" + response.timestamp
+            + ",\"tokensLeft\":" + response.tokensLeft
+            + ",\"refillIn\":" + response.refillIn
+            + ",\"refillRate\":" + response.refillRate
+            + ",\"tokensConsumed\":" + cost
+            + body + "}";
+        return response;
+    }
+
+    private void refill() {
+        long minute = currentMinute();
+        if (minute > lastRefillMinute) {
+            tokensLeft = (int) Math.min(maxTokens, tokensLeft + (minute - lastRefillMinute) * refillRate);
+            lastRefillMinute = minute;
+        }
+    }
+
+    // The same ASIN always gets the same template, so repeated runs see unchanged products
+    private String productsBody(List<String> asins) {
+        StringBuilder body = new StringBuilder(",\"products\":[");
+        for (int i = 0; i < asins.size(); i++) {
+            if (i > 0) {
+                body.append(',');
+            }
+            String template = productTemplates.get(Math.floorMod(asins.get(i).hashCode(), productTemplates.size()));
+            body.append(template.replace(ASIN_PLACEHOLDER, asins.get(i)));
+        }
+        return body.append(']').toString();
+    }
+
+    // Synthetic ASINs that are stable per category node
+    private String bestSellersBody(long categoryNodeId) {
+        StringBuilder body = new StringBuilder(bestSellersSize * 13 + 64);
+        body.append(",\"bestSellersList\":{\"categoryId\":").append(categoryNodeId).append(",\"asinList\":[");
+        for (int i = 0; i < bestSellersSize; i++) {
+            if (i > 0) {
+                body.append(',');
+            }
+            long mixed = (categoryNodeId * 1_000_003L + i) * 0x9E3779B97F4A7C15L;
+            String suffix = Long.toString(Math.floorMod(mixed, ASIN_SPACE), 36).toUpperCase();
+            body.append("\"B");
+            for (int pad = suffix.length(); pad < 9; pad++) {
+                body.append('0');
+            }
+            body.append(suffix).append('"');
+        }
+        return body.append("]}").toString();
+    }
+
+    // Children are numbered below their parent, so the category tree is the same in every run
+    private String categoriesBody(List<String> categoryIds) {
+        StringBuilder body = new StringBuilder(",\"categories\":{");
+        for (int i = 0; i < categoryIds.size(); i++) {
+            if (i > 0) {
+                body.append(',');
+            }
+            long categoryId = Long.parseLong(categoryIds.get(i));
+            body.append('"').append(categoryId).append("\":{\"catId\":").append(categoryId).append(",\"children\":[");
+            for (int child = 1; child <= subcategories && categoryId < Long.MAX_VALUE / 1000; child++) {
+                if (child > 1) {
+                    body.append(',');
+                }
+                body.append(categoryId * 100 + child);
+            }
+            body.append("]}");
+        }
+        return body.append('}').toString();
+    }
+
+    private static String sellersBody(List<String> sellerIds) {
+        StringBuilder body = new StringBuilder(",\"sellers\":{");
+        for (int i = 0; i < sellerIds.size(); i++) {
+            if (i > 0) {
+                body.append(',');
+            }
+            String sellerId = sellerIds.get(i);
+            body.append('"').append(sellerId).append("\":{\"sellerId\":\"").append(sellerId)
+                .append("\",\"sellerName\":\"Fake Seller ").append(sellerId).append("\"}");
+        }
+        return body.append('}').toString();
+    }
+
+    private static List<String> split(String values) {
+        List<String> result = new ArrayList<>();
+        if (values != null) {
+            for (String value : values.split(",")) {
+                if (!value.isEmpty()) {
+                    result.add(value);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static long currentMinute() {
+        return System.currentTimeMillis() / 60_000;
+    }
+
+    // The application reads responses through toString(), as with the JSON of real responses
+    private static class FakeResponse extends Response {
+        String json;
+
+        @Override
+        public String toString() {
+            return json;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package test;
+
+import java.util.concurrent.CompletableFuture;
+
+import com.keepa.api.backend.KeepaAPI;
+import com.keepa.api.backend.structs.Request;
+import com.keepa.api.backend.structs.Response;
+
+/**
+ * {@link KeepaClient} backed by the Keepa API.
+ */
+public class KeepaApiClient implements KeepaClient {
+    private final KeepaAPI api;
+
+    public KeepaApiClient(KeepaAPI api) {
+        this.api = api;
+    }
+
+    @Override
+    public CompletableFuture<Response> send(Request request) {
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        api.sendRequest(request)
+            .done(future::complete)
+            .fail(failure -> {
+                if (failure != null) {
+                    future.complete(failure);
+                } else {
+                    future.completeExceptionally(new RuntimeException("Keepa request failed without a response"));
+                }
+            });
+        return future;
+    }
+}
@@ -0,0 +1,17 @@
+package test;
+
+import java.util.concurrent.CompletableFuture;
+
+import com.keepa.api.backend.structs.Request;
+import com.keepa.api.backend.structs.Response;
+
+/**
+ * Sends one request to Keepa, or to a stand-in for it.
+ *
+ * The future completes with the response whatever its status, so the caller can
+ * sync its token bucket with failed responses too. It only completes
+ * exceptionally when there is no response at all.
+ */
+public interface KeepaClient {
+    CompletableFuture<Response> send(Request request);
+}
@@ -0,0 +1,82 @@
+package test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Derives interval statistics from Keepa history arrays.
+ *
+ * Keepa histories are flat arrays of keepaTime followed by one or more values,
+ * where keepaTime is minutes since 2011-01-01. A value holds from its keepaTime
+ * until the next entry, negative values mean there was no offer.
+ */
+public class KeepaHistory {
+    private static final long KEEPA_EPOCH_MINUTES = 21564000;
+
+    // CSV types used by the product processing
+    public static final int NEW = 1;
+    public static final int SALES = 3;
+    public static final int BUY_BOX_SHIPPING = 18;
+
+    private KeepaHistory() {
+    }
+
+    public static int toKeepaMinutes(long epochMillis) {
+        return (int) (epochMillis / 60000 - KEEPA_EPOCH_MINUTES);
+    }
+
+    public static int nowKeepaMinutes() {
+        return toKeepaMinutes(System.currentTimeMillis());
+    }
+
+    // Entries of BUY_BOX_SHIPPING carry price and shipping, the others a single value
+    public static int entrySize(int csvType) {
+        return csvType == BUY_BOX_SHIPPING ? 3 : 2;
+    }
+
+    // Number of different sellers that held the buy box at some point since the given time
+    public static int countBuyBoxWinnersSince(String[] buyBoxSellerIdHistory, int sinceKeepaMinutes) {
+        if (buyBoxSellerIdHistory == null) {
+            return 0;
+        }
+        Set<String> winners = new HashSet<>();
+        int length = buyBoxSellerIdHistory.length - buyBoxSellerIdHistory.length % 2;
+        for (int i = 0; i < length; i += 2) {
+            int time = Integer.parseInt(buyBoxSellerIdHistory[i]);
+            boolean heldSince = time >= sinceKeepaMinutes
+                || i + 2 >= length
+                || Integer.parseInt(buyBoxSellerIdHistory[i + 2]) > sinceKeepaMinutes;
+            String sellerId = buyBoxSellerIdHistory[i + 1];
+            // -1 means no seller had the buy box, -2 that it is unknown
+            if (heldSince && !sellerId.startsWith("-")) {
+                winners.add(sellerId);
+            }
+        }
+        return winners.size();
+    }
+
+    // Time-weighted average since the given time, -1 when there was no offer in the interval
+    public static int averageSince(int[] csv, int csvType, int sinceKeepaMinutes, int nowKeepaMinutes) {
+        if (csv == null) {
+            return -1;
+        }
+        int entrySize = entrySize(csvType);
+        int length = csv.length - csv.length % entrySize;
+        double weightedSum = 0;
+        long totalMinutes = 0;
+        for (int i = 0; i < length; i += entrySize) {
+            int value = csv[i + 1];
+            if (entrySize == 3 && value >= 0) {
+                value += Math.max(0, csv[i + 2]);
+            }
+            int from = Math.max(csv[i], sinceKeepaMinutes);
+            int to = i + entrySize < length ? Math.min(csv[i + entrySize], nowKeepaMinutes) : nowKeepaMinutes;
+            if (value < 0 || to <= from) {
+                continue;
+            }
+            weightedSum += (double) value * (to - from);
+            totalMinutes += to - from;
+        }
+        return totalMinutes > 0 ? (int) Math.round(weightedSum / totalMinutes) : -1;
+    }
+}
@@ -0,0 +1,77 @@
+package test;
+
+/**
+ * The fields of one Keepa product that the processing reads, filled by
+ * {@link KeepaResponseParser#parseProducts(String, boolean)}.
+ *
+ * Only the price types NEW, SALES and BUY_BOX_SHIPPING of stats.current and
+ * stats.avg30 are kept. Values Keepa did not send keep their defaults, a product
+ * without stats has no stats values and an unknown Amazon stock (-2). With stats
+ * a missing stockAmazon means Amazon has none in stock (0).
+ */
+public class KeepaProduct {
+    String asin = "";
+    String title = "N/A";
+    String brand = "";
+    String type = "N/A";
+    int monthlySold;
+    double referralFeePercentage;
+    double pickAndPackFee;
+    String eanList = "";
+    int buyBoxEligibleOfferCount;
+    int lastUpdate;
+    int lastPriceChange;
+
+    // Last entry of buyBoxSellerIdHistory, the whole history is only kept with the csv histories
+    String lastBuyBoxSellerId;
+    String[] buyBoxSellerIdHistory;
+
+    boolean hasStats;
+    boolean hasAvg30;
+    int newCurrent;
+    int salesCurrent;
+    int buyBoxShippingCurrent;
+    int newAvg30;
+    int salesAvg30;
+    int buyBoxShippingAvg30;
+    int buyBoxStatsCount;
+    int stockAmazon = -2;
+    int buyBoxPrice;
+
+    // csv histories of the used price types, only kept on request
+    int[] newHistory;
+    int[] salesHistory;
+    int[] buyBoxShippingHistory;
+
+    public String getAsin() {
+        return asin;
+    }
+
+    public int getLastUpdate() {
+        return lastUpdate;
+    }
+
+    public int getLastPriceChange() {
+        return lastPriceChange;
+    }
+
+    // Number of sellers in stats.buyBoxStats, the buy box winners of the stats interval
+    public int getBuyBoxStatsCount() {
+        return buyBoxStatsCount;
+    }
+
+    public String getLastBuyBoxSellerId() {
+        return lastBuyBoxSellerId;
+    }
+
+    // Fill a missing stats.avg30 from the csv histories
+    void addAvg30FromHistory(int sinceKeepaMinutes, int nowKeepaMinutes) {
+        if (!hasStats || hasAvg30 || (newHistory == null && salesHistory == null && buyBoxShippingHistory == null)) {
+            return;
+        }
+        newAvg30 = KeepaHistory.averageSince(newHistory, KeepaHistory.NEW, sinceKeepaMinutes, nowKeepaMinutes);
+        salesAvg30 = KeepaHistory.averageSince(salesHistory, KeepaHistory.SALES, sinceKeepaMinutes, nowKeepaMinutes);
+        buyBoxShippingAvg30 = KeepaHistory.averageSince(buyBoxShippingHistory, KeepaHistory.BUY_BOX_SHIPPING, sinceKeepaMinutes, nowKeepaMinutes);
+        hasAvg30 = true;
+    }
+}
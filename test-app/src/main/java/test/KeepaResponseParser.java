@@ -0,0 +1,486 @@
+package test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.keepa.api.backend.structs.Response;
+
+/**
+ * Stream parser for Keepa responses.
+ *
+ * Best-seller and product responses can be several megabytes, most of it price
+ * history and offers that are never used. The parser walks the response with a
+ * Gson {@link JsonReader} and reads products straight into {@link KeepaProduct}
+ * fields, everything the processing does not use is skipped without being
+ * allocated. A {@link Response} is read from the JSON that the Keepa library
+ * serializes it to, the String variants are used for fixtures.
+ */
+public class KeepaResponseParser {
+    private static final String CSV_FIELD = "csv";
+
+    private KeepaResponseParser() {
+    }
+
+    // The Keepa library hands over deserialized responses, toString() is their JSON
+    private static Reader openReader(Response response) {
+        return new StringReader(response.toString());
+    }
+
+    // Read bestSellersList.asinList, returns an empty list when the response has none
+    public static List<String> parseAsinList(Response response) throws IOException {
+        return parseAsinList(openReader(response));
+    }
+
+    public static List<String> parseAsinList(String json) throws IOException {
+        return parseAsinList(new StringReader(json));
+    }
+
+    private static List<String> parseAsinList(Reader in) throws IOException {
+        long startedAt = System.nanoTime();
+        List<String> asins = new ArrayList<>();
+        try (JsonReader reader = new JsonReader(in)) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!"bestSellersList".equals(reader.nextName()) || reader.peek() != JsonToken.BEGIN_OBJECT) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if ("asinList".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            asins.add(reader.nextString());
+                        }
+                        reader.endArray();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            }
+            reader.endObject();
+        }
+        Metrics.JSON_PARSE_SECONDS.observeNanos(System.nanoTime() - startedAt, "bestsellers");
+        return asins;
+    }
+
+    // Read the products array into typed products, skipping every field the processing does not use
+    public static List<KeepaProduct> parseProducts(Response response) throws IOException {
+        return parseProducts(openReader(response), false);
+    }
+
+    // Same as parseProducts(response), with includeHistory the csv histories of the used price types are kept as well
+    public static List<KeepaProduct> parseProducts(Response response, boolean includeHistory) throws IOException {
+        return parseProducts(openReader(response), includeHistory);
+    }
+
+    public static List<KeepaProduct> parseProducts(String json) throws IOException {
+        return parseProducts(new StringReader(json), false);
+    }
+
+    public static List<KeepaProduct> parseProducts(String json, boolean includeHistory) throws IOException {
+        return parseProducts(new StringReader(json), includeHistory);
+    }
+
+    private static List<KeepaProduct> parseProducts(Reader in, boolean includeHistory) throws IOException {
+        long startedAt = System.nanoTime();
+        List<KeepaProduct> products = new ArrayList<>();
+        try (JsonReader reader = new JsonReader(in)) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!"products".equals(reader.nextName()) || reader.peek() != JsonToken.BEGIN_ARRAY) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                        products.add(readProduct(reader, includeHistory));
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+        }
+        Metrics.JSON_PARSE_SECONDS.observeNanos(System.nanoTime() - startedAt, "products");
+        return products;
+    }
+
+    // Read the sellerName of every entry in the sellers object, keyed by seller ID
+    public static Map<String, String> parseSellerNames(Response response) throws IOException {
+        return parseSellerNames(openReader(response));
+    }
+
+    public static Map<String, String> parseSellerNames(String json) throws IOException {
+        return parseSellerNames(new StringReader(json));
+    }
+
+    private static Map<String, String> parseSellerNames(Reader in) throws IOException {
+        long startedAt = System.nanoTime();
+        Map<String, String> sellerNames = new HashMap<>();
+        try (JsonReader reader = new JsonReader(in)) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!"sellers".equals(reader.nextName()) || reader.peek() != JsonToken.BEGIN_OBJECT) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String sellerId = reader.nextName();
+                    if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                        reader.skipValue();
+                        continue;
+                    }
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if ("sellerName".equals(reader.nextName()) && reader.peek() == JsonToken.STRING) {
+                            sellerNames.put(sellerId, reader.nextString());
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                reader.endObject();
+            }
+            reader.endObject();
+        }
+        Metrics.JSON_PARSE_SECONDS.observeNanos(System.nanoTime() - startedAt, "sellers");
+        return sellerNames;
+    }
+
+    // Read the child node IDs of every entry in the categories object, keyed by category node ID
+    public static Map<Long, List<Long>> parseCategoryChildren(Response response) throws IOException {
+        return parseCategoryChildren(openReader(response));
+    }
+
+    public static Map<Long, List<Long>> parseCategoryChildren(String json) throws IOException {
+        return parseCategoryChildren(new StringReader(json));
+    }
+
+    private static Map<Long, List<Long>> parseCategoryChildren(Reader in) throws IOException {
+        long startedAt = System.nanoTime();
+        Map<Long, List<Long>> children = new HashMap<>();
+        try (JsonReader reader = new JsonReader(in)) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!"categories".equals(reader.nextName()) || reader.peek() != JsonToken.BEGIN_OBJECT) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    long categoryId = Long.parseLong(reader.nextName());
+                    if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                        reader.skipValue();
+                        continue;
+                    }
+                    List<Long> childIds = new ArrayList<>();
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if ("children".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                            reader.beginArray();
+                            while (reader.hasNext()) {
+                                childIds.add(reader.nextLong());
+                            }
+                            reader.endArray();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    children.put(categoryId, childIds);
+                }
+                reader.endObject();
+            }
+            reader.endObject();
+        }
+        Metrics.JSON_PARSE_SECONDS.observeNanos(System.nanoTime() - startedAt, "categories");
+        return children;
+    }
+
+    private static KeepaProduct readProduct(JsonReader reader, boolean includeHistory) throws IOException {
+        KeepaProduct product = new KeepaProduct();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "asin":
+                    product.asin = reader.nextString();
+                    break;
+                case "title":
+                    product.title = reader.nextString();
+                    break;
+                case "brand":
+                    product.brand = reader.nextString();
+                    break;
+                case "type":
+                    product.type = reader.nextString();
+                    break;
+                case "monthlySold":
+                    product.monthlySold = reader.nextInt();
+                    break;
+                case "referralFeePercentage":
+                    product.referralFeePercentage = reader.nextDouble();
+                    break;
+                case "lastUpdate":
+                    product.lastUpdate = reader.nextInt();
+                    break;
+                case "lastPriceChange":
+                    product.lastPriceChange = reader.nextInt();
+                    break;
+                case "eanList":
+                    product.eanList = formatEanList(reader);
+                    break;
+                case "buyBoxEligibleOfferCounts":
+                    product.buyBoxEligibleOfferCount = readFirstInt(reader);
+                    break;
+                case "buyBoxSellerIdHistory":
+                    readBuyBoxSellerIdHistory(reader, product, includeHistory);
+                    break;
+                case "fbaFees":
+                    readFbaFees(reader, product);
+                    break;
+                case "stats":
+                    readStats(reader, product);
+                    break;
+                case CSV_FIELD:
+                    if (includeHistory) {
+                        readCsv(reader, product);
+                    } else {
+                        reader.skipValue();
+                    }
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return product;
+    }
+
+    // Format the EAN list as a single string separated by ", ", package-private for its benchmark
+    static String formatEanList(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            reader.skipValue();
+            return "";
+        }
+        StringBuilder eanList = new StringBuilder();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (eanList.length() > 0) {
+                eanList.append(", ");
+            }
+            eanList.append(reader.nextString());
+        }
+        reader.endArray();
+        return eanList.toString();
+    }
+
+    private static int readFirstInt(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            reader.skipValue();
+            return 0;
+        }
+        int value = 0;
+        reader.beginArray();
+        for (int i = 0; reader.hasNext(); i++) {
+            if (i == 0 && reader.peek() == JsonToken.NUMBER) {
+                value = reader.nextInt();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endArray();
+        return value;
+    }
+
+    private static void readBuyBoxSellerIdHistory(JsonReader reader, KeepaProduct product, boolean includeHistory) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            reader.skipValue();
+            return;
+        }
+        List<String> history = includeHistory ? new ArrayList<>() : null;
+        String last = null;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            last = reader.nextString();
+            if (history != null) {
+                history.add(last);
+            }
+        }
+        reader.endArray();
+        product.lastBuyBoxSellerId = last;
+        if (history != null) {
+            product.buyBoxSellerIdHistory = history.toArray(new String[0]);
+        }
+    }
+
+    private static void readFbaFees(JsonReader reader, KeepaProduct product) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("pickAndPackFee".equals(reader.nextName()) && reader.peek() == JsonToken.NUMBER) {
+                product.pickAndPackFee = reader.nextDouble();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static void readStats(JsonReader reader, KeepaProduct product) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return;
+        }
+        product.hasStats = true;
+        // Keepa leaves out stockAmazon when Amazon has no stock, only a product without stats has an unknown stock
+        product.stockAmazon = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "current":
+                    int[] current = readPriceTypes(reader);
+                    if (current != null) {
+                        product.newCurrent = current[0];
+                        product.salesCurrent = current[1];
+                        product.buyBoxShippingCurrent = current[2];
+                    }
+                    break;
+                case "avg30":
+                    int[] avg30 = readPriceTypes(reader);
+                    if (avg30 != null) {
+                        product.newAvg30 = avg30[0];
+                        product.salesAvg30 = avg30[1];
+                        product.buyBoxShippingAvg30 = avg30[2];
+                        product.hasAvg30 = true;
+                    }
+                    break;
+                case "buyBoxStats":
+                    product.buyBoxStatsCount = countEntries(reader);
+                    break;
+                case "stockAmazon":
+                    product.stockAmazon = reader.nextInt();
+                    break;
+                case "buyBoxPrice":
+                    product.buyBoxPrice = reader.nextInt();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    // Read the NEW, SALES and BUY_BOX_SHIPPING entries of a stats array, missing entries are 0
+    private static int[] readPriceTypes(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            reader.skipValue();
+            return null;
+        }
+        int[] values = new int[3];
+        reader.beginArray();
+        for (int csvType = 0; reader.hasNext(); csvType++) {
+            int index = priceTypeIndex(csvType);
+            if (index >= 0 && reader.peek() == JsonToken.NUMBER) {
+                values[index] = reader.nextInt();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endArray();
+        return values;
+    }
+
+    private static int priceTypeIndex(int csvType) {
+        switch (csvType) {
+            case KeepaHistory.NEW:
+                return 0;
+            case KeepaHistory.SALES:
+                return 1;
+            case KeepaHistory.BUY_BOX_SHIPPING:
+                return 2;
+            default:
+                return -1;
+        }
+    }
+
+    private static int countEntries(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return 0;
+        }
+        int count = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            reader.nextName();
+            reader.skipValue();
+            count++;
+        }
+        reader.endObject();
+        return count;
+    }
+
+    // Keep the histories of the used price types, the others are skipped
+    private static void readCsv(JsonReader reader, KeepaProduct product) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            reader.skipValue();
+            return;
+        }
+        reader.beginArray();
+        for (int csvType = 0; reader.hasNext(); csvType++) {
+            if (priceTypeIndex(csvType) < 0 || reader.peek() != JsonToken.BEGIN_ARRAY) {
+                reader.skipValue();
+                continue;
+            }
+            int[] history = readIntArray(reader);
+            if (csvType == KeepaHistory.NEW) {
+                product.newHistory = history;
+            } else if (csvType == KeepaHistory.SALES) {
+                product.salesHistory = history;
+            } else {
+                product.buyBoxShippingHistory = history;
+            }
+        }
+        reader.endArray();
+    }
+
+    private static int[] readIntArray(JsonReader reader) throws IOException {
+        int[] values = new int[64];
+        int size = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = reader.nextInt();
+        }
+        reader.endArray();
+        return Arrays.copyOf(values, size);
+    }
+}
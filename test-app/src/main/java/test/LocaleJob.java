@@ -0,0 +1,66 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.keepa.api.backend.structs.AmazonLocale;
+
+/**
+ * One best-seller refresh: a locale, the category node and how many ASINs to process.
+ *
+ * Jobs are configured as a comma separated list of LOCALE:NODE_ID[:MAX_ASINS]
+ * entries, e.g. JOBS=DE:562066:1000,FR:13921051:1000,UK:560798.
+ */
+public class LocaleJob {
+    private final AmazonLocale locale;
+    private final long categoryNodeId;
+    private final int maxAsins;
+
+    public LocaleJob(AmazonLocale locale, long categoryNodeId, int maxAsins) {
+        this.locale = locale;
+        this.categoryNodeId = categoryNodeId;
+        this.maxAsins = maxAsins;
+    }
+
+    public AmazonLocale getLocale() {
+        return locale;
+    }
+
+    public long getCategoryNodeId() {
+        return categoryNodeId;
+    }
+
+    public int getMaxAsins() {
+        return maxAsins;
+    }
+
+    public static List<LocaleJob> parseList(String jobs, int defaultMaxAsins) {
+        List<LocaleJob> result = new ArrayList<>();
+        for (String job : jobs.split(",")) {
+            if (job.trim().isEmpty()) {
+                continue;
+            }
+            String[] parts = job.trim().split(":");
+            if (parts.length < 2 || parts.length > 3) {
+                throw new IllegalArgumentException("Invalid job '" + job + "', expected LOCALE:NODE_ID[:MAX_ASINS]");
+            }
+            int maxAsins = parts.length == 3 ? Integer.parseInt(parts[2].trim()) : defaultMaxAsins;
+            result.add(new LocaleJob(parseLocale(parts[0]), Long.parseLong(parts[1].trim()), maxAsins));
+        }
+        return result;
+    }
+
+    private static AmazonLocale parseLocale(String name) {
+        String localeName = name.trim().toUpperCase();
+        // Amazon UK is GB in the Keepa locales
+        if ("UK".equals(localeName)) {
+            localeName = "GB";
+        }
+        return AmazonLocale.valueOf(localeName);
+    }
+
+    @Override
+    public String toString() {
+        return locale + " " + categoryNodeId;
+    }
+}
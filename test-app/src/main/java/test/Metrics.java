@@ -0,0 +1,387 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters, gauges and histograms of one run.
+ *
+ * The metrics are static so every stage can record without a registry being
+ * passed around, recording only touches {@link LongAdder}s and never blocks.
+ * {@link #render()} writes them in the Prometheus text format for
+ * {@link MetricsServer}. {@link #getSummary(Snapshot)} condenses what was
+ * recorded since a {@link #snapshot()} for the log at the end of a run, while the
+ * rendered values keep counting over the lifetime of the process.
+ */
+public class Metrics {
+    // Upper bounds in seconds, from 1 ms to 1 minute
+    private static final double[] LATENCY_BUCKETS = {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60};
+
+    private static final List<Metric<?>> METRICS = new CopyOnWriteArrayList<>();
+
+    public static final Histogram KEEPA_REQUEST_SECONDS = register(new Histogram("keepa_request_duration_seconds", "Time from sending a Keepa request until its response arrived", LATENCY_BUCKETS, "path"));
+    public static final Counter KEEPA_RESPONSES = register(new Counter("keepa_responses_total", "Keepa responses by request path and status", "path", "status"));
+    public static final Counter KEEPA_TOKENS_CONSUMED = register(new Counter("keepa_tokens_consumed_total", "Tokens consumed as reported by Keepa"));
+    public static final Gauge KEEPA_TOKENS_LEFT = register(new Gauge("keepa_tokens_left", "Tokens left as reported by the latest Keepa response"));
+    public static final Counter ASINS_PROCESSED = register(new Counter("asins_processed_total", "ASINs that went through the pipeline, written or not", "locale"));
+    public static final Histogram JSON_PARSE_SECONDS = register(new Histogram("json_parse_duration_seconds", "Time spent parsing one Keepa response", LATENCY_BUCKETS, "response"));
+    public static final Counter SELLER_CACHE_LOOKUPS = register(new Counter("seller_cache_lookups_total", "Seller name lookups by result: hit, coalesced or miss", "result"));
+    public static final Histogram DB_BATCH_SECONDS = register(new Histogram("db_batch_duration_seconds", "Time spent writing one batch of products", LATENCY_BUCKETS, "table"));
+    public static final Counter ROWS_WRITTEN = register(new Counter("rows_written_total", "Product rows written", "table"));
+    public static final Counter ROWS_FAILED = register(new Counter("rows_failed_total", "Product rows that could not be written", "table"));
+
+    private Metrics() {
+    }
+
+    // The counter and histogram values at one point in time
+    public static class Snapshot {
+        final long takenAt;
+        final Map<Metric<?>, Map<List<String>, double[]>> values = new HashMap<>();
+
+        Snapshot(long takenAt) {
+            this.takenAt = takenAt;
+        }
+
+        double[] get(Metric<?> metric, List<String> labelValues) {
+            Map<List<String>, double[]> children = values.get(metric);
+            return children != null ? children.get(labelValues) : null;
+        }
+    }
+
+    private static <M extends Metric<?>> M register(M metric) {
+        METRICS.add(metric);
+        return metric;
+    }
+
+    // All metrics in the Prometheus text exposition format 0.0.4
+    public static String render() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Metric<?> metric : METRICS) {
+            out.append("# HELP ").append(metric.name).append(' ').append(metric.help).append('\n');
+            out.append("# TYPE ").append(metric.name).append(' ').append(metric.type).append('\n');
+            metric.render(out);
+        }
+        return out.toString();
+    }
+
+    // Taken at the start of a run so its summary only covers that run
+    public static Snapshot snapshot() {
+        Snapshot snapshot = new Snapshot(System.nanoTime());
+        for (Metric<?> metric : METRICS) {
+            snapshot.values.put(metric, metric.snapshot());
+        }
+        return snapshot;
+    }
+
+    // One line per metric and label set that recorded something since the snapshot
+    public static List<String> getSummary(Snapshot since) {
+        double seconds = (System.nanoTime() - since.takenAt) / 1e9;
+        long asinsProcessed = ASINS_PROCESSED.totalSince(since);
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format(Locale.ROOT, "Run time %.1f s, %d ASINs processed (%.1f ASINs/sec), %d rows written",
+            seconds, asinsProcessed, seconds > 0 ? asinsProcessed / seconds : 0, ROWS_WRITTEN.totalSince(since)));
+        lines.add(String.format(Locale.ROOT, "Keepa tokens: %d consumed, %d left", KEEPA_TOKENS_CONSUMED.totalSince(since), KEEPA_TOKENS_LEFT.get()));
+
+        long hits = SELLER_CACHE_LOOKUPS.getSince(since, "hit") + SELLER_CACHE_LOOKUPS.getSince(since, "coalesced");
+        long lookups = SELLER_CACHE_LOOKUPS.totalSince(since);
+        lines.add(String.format(Locale.ROOT, "Seller cache: %d lookups, %.1f%% hit rate", lookups, lookups > 0 ? 100.0 * hits / lookups : 0));
+
+        for (Metric<?> metric : METRICS) {
+            if (metric instanceof Histogram) {
+                ((Histogram) metric).summarize(lines, since);
+            } else if (metric instanceof Counter && metric.labelNames.length > 0) {
+                ((Counter) metric).summarize(lines, since);
+            }
+        }
+        return lines;
+    }
+
+    private static String formatLabels(String[] names, List<String> values, String extraName, String extraValue) {
+        if (names.length == 0 && extraName == null) {
+            return "";
+        }
+        StringBuilder labels = new StringBuilder("{");
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) {
+                labels.append(',');
+            }
+            labels.append(names[i]).append("=\"").append(escape(values.get(i))).append('"');
+        }
+        if (extraName != null) {
+            if (names.length > 0) {
+                labels.append(',');
+            }
+            labels.append(extraName).append("=\"").append(extraValue).append('"');
+        }
+        return labels.append('}').toString();
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String formatNumber(double value) {
+        if (value == Double.POSITIVE_INFINITY) {
+            return "+Inf";
+        }
+        return value == Math.rint(value) && Math.abs(value) < 1e15 ? String.valueOf((long) value) : String.valueOf(value);
+    }
+
+    // A metric family with one child per combination of label values
+    private abstract static class Metric<C> {
+        final String name;
+        final String help;
+        final String type;
+        final String[] labelNames;
+        final ConcurrentMap<List<String>, C> children = new ConcurrentHashMap<>();
+
+        Metric(String name, String help, String type, String... labelNames) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.labelNames = labelNames;
+        }
+
+        C child(String... labelValues) {
+            if (labelValues.length != labelNames.length) {
+                throw new IllegalArgumentException(name + " expects labels " + Arrays.toString(labelNames));
+            }
+            return children.computeIfAbsent(Arrays.asList(labelValues), values -> newChild());
+        }
+
+        abstract C newChild();
+
+        abstract void render(StringBuilder out);
+
+        // The values of every child, gauges are not part of a snapshot
+        Map<List<String>, double[]> snapshot() {
+            return new HashMap<>();
+        }
+    }
+
+    public static class Counter extends Metric<LongAdder> {
+        Counter(String name, String help, String... labelNames) {
+            super(name, help, "counter", labelNames);
+        }
+
+        public void inc(String... labelValues) {
+            child(labelValues).increment();
+        }
+
+        public void add(long amount, String... labelValues) {
+            child(labelValues).add(amount);
+        }
+
+        public long get(String... labelValues) {
+            LongAdder value = children.get(Arrays.asList(labelValues));
+            return value != null ? value.sum() : 0;
+        }
+
+        // Sum over all label values
+        public long total() {
+            long total = 0;
+            for (LongAdder value : children.values()) {
+                total += value.sum();
+            }
+            return total;
+        }
+
+        public long getSince(Snapshot since, String... labelValues) {
+            return get(labelValues) - startValue(since, Arrays.asList(labelValues));
+        }
+
+        public long totalSince(Snapshot since) {
+            long total = 0;
+            for (Map.Entry<List<String>, LongAdder> child : children.entrySet()) {
+                total += child.getValue().sum() - startValue(since, child.getKey());
+            }
+            return total;
+        }
+
+        private long startValue(Snapshot since, List<String> labelValues) {
+            double[] start = since.get(this, labelValues);
+            return start != null ? (long) start[0] : 0;
+        }
+
+        @Override
+        Map<List<String>, double[]> snapshot() {
+            Map<List<String>, double[]> values = new HashMap<>();
+            for (Map.Entry<List<String>, LongAdder> child : children.entrySet()) {
+                values.put(child.getKey(), new double[] {child.getValue().sum()});
+            }
+            return values;
+        }
+
+        @Override
+        LongAdder newChild() {
+            return new LongAdder();
+        }
+
+        @Override
+        void render(StringBuilder out) {
+            for (Map.Entry<List<String>, LongAdder> child : children.entrySet()) {
+                out.append(name).append(formatLabels(labelNames, child.getKey(), null, null))
+                    .append(' ').append(child.getValue().sum()).append('\n');
+            }
+        }
+
+        void summarize(List<String> lines, Snapshot since) {
+            for (Map.Entry<List<String>, LongAdder> child : children.entrySet()) {
+                long value = child.getValue().sum() - startValue(since, child.getKey());
+                if (value != 0) {
+                    lines.add(name + formatLabels(labelNames, child.getKey(), null, null) + ": " + value);
+                }
+            }
+        }
+    }
+
+    public static class Gauge extends Metric<AtomicLong> {
+        private final AtomicLong value = new AtomicLong();
+
+        Gauge(String name, String help) {
+            super(name, help, "gauge");
+        }
+
+        public void set(long newValue) {
+            value.set(newValue);
+        }
+
+        public long get() {
+            return value.get();
+        }
+
+        @Override
+        AtomicLong newChild() {
+            return value;
+        }
+
+        @Override
+        void render(StringBuilder out) {
+            out.append(name).append(' ').append(value.get()).append('\n');
+        }
+    }
+
+    public static class Histogram extends Metric<Histogram.Buckets> {
+        private final double[] bounds;
+
+        // Counts per bucket are kept non-cumulative and summed up when rendered
+        static class Buckets {
+            final LongAdder[] counts;
+            final DoubleAdder sum = new DoubleAdder();
+            final LongAdder count = new LongAdder();
+
+            Buckets(int size) {
+                counts = new LongAdder[size];
+                for (int i = 0; i < size; i++) {
+                    counts[i] = new LongAdder();
+                }
+            }
+        }
+
+        Histogram(String name, String help, double[] bounds, String... labelNames) {
+            super(name, help, "histogram", labelNames);
+            this.bounds = bounds;
+        }
+
+        public void observe(double value, String... labelValues) {
+            Buckets buckets = child(labelValues);
+            int index = Arrays.binarySearch(bounds, value);
+            buckets.counts[index >= 0 ? index : -index - 1].increment();
+            buckets.sum.add(value);
+            buckets.count.increment();
+        }
+
+        public void observeNanos(long nanos, String... labelValues) {
+            observe(nanos / 1e9, labelValues);
+        }
+
+        @Override
+        Buckets newChild() {
+            // One extra bucket for values above the largest bound
+            return new Buckets(bounds.length + 1);
+        }
+
+        @Override
+        void render(StringBuilder out) {
+            for (Map.Entry<List<String>, Buckets> child : children.entrySet()) {
+                Buckets buckets = child.getValue();
+                long cumulative = 0;
+                for (int i = 0; i <= bounds.length; i++) {
+                    cumulative += buckets.counts[i].sum();
+                    double bound = i < bounds.length ? bounds[i] : Double.POSITIVE_INFINITY;
+                    out.append(name).append("_bucket").append(formatLabels(labelNames, child.getKey(), "le", formatNumber(bound)))
+                        .append(' ').append(cumulative).append('\n');
+                }
+                String labels = formatLabels(labelNames, child.getKey(), null, null);
+                out.append(name).append("_sum").append(labels).append(' ').append(buckets.sum.sum()).append('\n');
+                out.append(name).append("_count").append(labels).append(' ').append(buckets.count.sum()).append('\n');
+            }
+        }
+
+        // Bucket counts, then the count and the sum
+        @Override
+        Map<List<String>, double[]> snapshot() {
+            Map<List<String>, double[]> values = new HashMap<>();
+            for (Map.Entry<List<String>, Buckets> child : children.entrySet()) {
+                values.put(child.getKey(), toValues(child.getValue()));
+            }
+            return values;
+        }
+
+        private double[] toValues(Buckets buckets) {
+            double[] values = new double[bounds.length + 3];
+            for (int i = 0; i <= bounds.length; i++) {
+                values[i] = buckets.counts[i].sum();
+            }
+            values[bounds.length + 1] = buckets.count.sum();
+            values[bounds.length + 2] = buckets.sum.sum();
+            return values;
+        }
+
+        // Count, mean and the bucket bounds that hold the median and the 95th percentile
+        void summarize(List<String> lines, Snapshot since) {
+            for (Map.Entry<List<String>, Buckets> child : children.entrySet()) {
+                double[] values = toValues(child.getValue());
+                double[] start = since.get(this, child.getKey());
+                if (start != null) {
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] -= start[i];
+                    }
+                }
+                long count = (long) values[bounds.length + 1];
+                if (count == 0) {
+                    continue;
+                }
+                lines.add(String.format(Locale.ROOT, "%s%s: %d, mean %.1f ms, p50 <= %s, p95 <= %s",
+                    name, formatLabels(labelNames, child.getKey(), null, null), count, values[bounds.length + 2] * 1000 / count,
+                    formatBound(quantileBound(values, count, 0.5)), formatBound(quantileBound(values, count, 0.95))));
+            }
+        }
+
+        private double quantileBound(double[] counts, long count, double quantile) {
+            long rank = (long) Math.ceil(count * quantile);
+            long cumulative = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                cumulative += (long) counts[i];
+                if (cumulative >= rank) {
+                    return bounds[i];
+                }
+            }
+            return Double.POSITIVE_INFINITY;
+        }
+
+        private static String formatBound(double seconds) {
+            return seconds == Double.POSITIVE_INFINITY ? "+Inf" : String.format(Locale.ROOT, "%.1f ms", seconds * 1000);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Serves {@link Metrics} at /metrics in the Prometheus text format.
+ *
+ * Uses the HTTP server built into the JDK, so scraping needs no extra
+ * dependency. Requests are handled on one daemon thread, a scrape never waits
+ * for the pipeline.
+ */
+public class MetricsServer implements AutoCloseable {
+    private static final Logger LOGGER = LogManager.getLogger(MetricsServer.class);
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final HttpServer server;
+
+    private MetricsServer(HttpServer server) {
+        this.server = server;
+    }
+
+    // METRICS_PORT=0 disables the endpoint, returns null when it is disabled or the port is taken
+    public static MetricsServer fromEnv(Dotenv dotenv) {
+        int port = Integer.parseInt(dotenv.get("METRICS_PORT", "9400"));
+        if (port <= 0) {
+            return null;
+        }
+        String host = dotenv.get("METRICS_HOST", "127.0.0.1");
+        try {
+            return start(host, port);
+        } catch (IOException e) {
+            LOGGER.warn("Metrics endpoint not started on " + host + ":" + port + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    public static MetricsServer start(String host, int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        server.createContext("/metrics", MetricsServer::handle);
+        server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-server");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+        LOGGER.info("Serving metrics at http://" + host + ":" + port + "/metrics");
+        return new MetricsServer(server);
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = Metrics.render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
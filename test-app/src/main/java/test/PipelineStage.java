@@ -0,0 +1,144 @@
+package test;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * One stage of the product pipeline: a bounded input queue drained by its own pool of worker threads.
+ *
+ * {@link #submit(Object)} blocks while the queue is full, so a slow stage holds
+ * back the stages in front of it instead of letting items pile up in memory.
+ * {@link #close()} lets the workers finish everything that was queued and waits
+ * for them to exit. A worker that exits any other way fails the stage: nothing
+ * would drain its queue any more, so submit and close throw instead of waiting.
+ */
+public class PipelineStage<I> {
+    private static final Logger LOGGER = LogManager.getLogger(PipelineStage.class);
+
+    // Processes one item, usually by submitting its result to the next stage
+    public interface Handler<I> {
+        void handle(I item) throws Exception;
+    }
+
+    private static final Object END_OF_STREAM = new Object();
+    // How often a blocked submit checks that the stage still has its workers
+    private static final long OFFER_TIMEOUT_MS = 1000;
+
+    private final String name;
+    private final int threads;
+    private final BlockingQueue<Object> queue;
+    private final Handler<I> handler;
+    private final ExecutorService executor;
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    public PipelineStage(String name, int threads, int queueCapacity, Handler<I> handler) {
+        this.name = name;
+        this.threads = threads;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.handler = handler;
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, r -> new Thread(r, name + "-" + threadNumber.incrementAndGet()));
+        for (int i = 0; i < threads; i++) {
+            executor.execute(this::work);
+        }
+    }
+
+    // Throws IllegalStateException once the stage has failed
+    public void submit(I item) throws InterruptedException {
+        put(item);
+    }
+
+    // Signal that no more items follow and wait until the queued ones are processed
+    public void close() throws InterruptedException {
+        for (int i = 0; i < threads; i++) {
+            put(END_OF_STREAM);
+        }
+        executor.shutdown();
+        while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+            LOGGER.info("Waiting for stage " + name + " to drain, " + queue.size() + " items queued");
+        }
+        checkFailure();
+    }
+
+    // Stop the workers and drop the queued items, used when the pipeline is cancelled
+    public void abort(Throwable cause) {
+        failure.compareAndSet(null, cause);
+        executor.shutdownNow();
+        queue.clear();
+    }
+
+    // The reason the stage stopped, null while it is running
+    public Throwable getFailure() {
+        return failure.get();
+    }
+
+    // Items whose handler threw
+    public long getFailedItems() {
+        return failed.get();
+    }
+
+    private void put(Object item) throws InterruptedException {
+        while (true) {
+            checkFailure();
+            if (queue.offer(item, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        }
+    }
+
+    private void checkFailure() {
+        Throwable cause = failure.get();
+        if (cause != null) {
+            throw new IllegalStateException("Stage " + name + " failed: " + cause.getMessage(), cause);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name + ": " + processed.get() + " processed, " + failed.get() + " failed";
+    }
+
+    @SuppressWarnings("unchecked")
+    private void work() {
+        Throwable cause = null;
+        try {
+            while (true) {
+                Object item = queue.take();
+                if (item == END_OF_STREAM) {
+                    return;
+                }
+                try {
+                    handler.handle((I) item);
+                    processed.incrementAndGet();
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    LOGGER.error("Error in stage " + name + ": " + e.getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            cause = e;
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException | Error e) {
+            cause = e;
+            throw e;
+        } finally {
+            if (cause != null && failure.compareAndSet(null, cause)) {
+                LOGGER.error("Worker " + Thread.currentThread().getName() + " of stage " + name + " stopped", cause);
+            }
+        }
+    }
+}
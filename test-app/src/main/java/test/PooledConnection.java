@@ -0,0 +1,57 @@
+package test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A pooled database connection together with the statements prepared on it.
+ *
+ * A connection is only used by one thread at a time, so the statement cache
+ * does not need to be synchronized.
+ */
+public class PooledConnection {
+    private static final Logger LOGGER = LogManager.getLogger(PooledConnection.class);
+
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+    PooledConnection(Connection connection) {
+        this.connection = connection;
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    // Prepare the statement on first use and reuse it afterwards
+    public PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement preparedStatement = statements.get(sql);
+        if (preparedStatement == null) {
+            preparedStatement = connection.prepareStatement(sql);
+            statements.put(sql, preparedStatement);
+        }
+        return preparedStatement;
+    }
+
+    void close() {
+        for (PreparedStatement preparedStatement : statements.values()) {
+            try {
+                preparedStatement.close();
+            } catch (SQLException e) {
+                LOGGER.warn("Error closing prepared statement: " + e.getMessage());
+            }
+        }
+        statements.clear();
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            LOGGER.warn("Error closing database connection: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,350 @@
+package test;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.keepa.api.backend.structs.AmazonLocale;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+/**
+ * Exports a products_&lt;locale&gt; table to CSV or XLSX for spreadsheets.
+ *
+ * The query runs in a transaction with a fetch size, so the PostgreSQL driver
+ * reads it through a cursor instead of loading the whole result. Each row is
+ * written as soon as it is read: CSV goes straight to a buffered file, XLSX
+ * through an {@link SXSSFWorkbook} that keeps a small window of rows in memory
+ * and flushes the rest to a temporary file. The heap stays the same for any
+ * number of rows.
+ *
+ * Run as: export --locale=DE [--format=csv|xlsx] [--output=file]
+ * [--category=NODE_ID] [--type=TYPE] [--min-monthly-sold=N] [--min-winners=N]
+ * [--max-winners=N]
+ */
+public class ProductExport {
+    private static final Logger LOGGER = LogManager.getLogger(ProductExport.class);
+    private static final String COLUMNS = "asin, title, brand, type, category_node_id, ean_list, monthly_sold, sales_current, sales_avg30, new_price_current, new_price_avg30, "
+        + "buy_box_shipping_current, buy_box_shipping_avg30, seller_name, winner_count_30, winner_count_90, buy_box_eligible_offer_count, stock_amazon, "
+        + "fba_fees, referral_fee_percentage, referral_buybox_fee, last_updated";
+    private static final int XLSX_WINDOW_ROWS = 100;
+    private static final int XLSX_MAX_ROWS = 1048576;  // Rows per sheet in Excel, including the header
+    private static final int PROGRESS_ROWS = 100000;
+
+    // Writes one export file row by row
+    interface ExportSink extends AutoCloseable {
+        void writeHeader(String[] columnNames) throws IOException;
+
+        void writeRow(ResultSet resultSet, int[] columnTypes) throws SQLException, IOException;
+
+        @Override
+        void close() throws IOException;
+    }
+
+    private final ConnectionPool connectionPool;
+    private final int fetchSize;
+
+    public ProductExport(ConnectionPool connectionPool, int fetchSize) {
+        this.connectionPool = connectionPool;
+        this.fetchSize = fetchSize;
+    }
+
+    // Entry point of the export command, args are the options after "export"
+    public static void run(Dotenv dotenv, String[] args) {
+        Map<String, String> options;
+        AmazonLocale locale;
+        try {
+            options = parseOptions(args);
+            String localeName = options.getOrDefault("locale", "").toUpperCase();
+            locale = AmazonLocale.valueOf("UK".equals(localeName) ? "GB" : localeName);
+        } catch (IllegalArgumentException e) {
+            LOGGER.error(e.getMessage() + ", usage: export --locale=DE [--format=csv|xlsx] [--output=file] [--category=NODE_ID] [--type=TYPE] [--min-monthly-sold=N] [--min-winners=N] [--max-winners=N]");
+            return;
+        }
+        String tableName = ProductTable.getTableName(locale);
+        String output = options.getOrDefault("output", tableName + "." + options.getOrDefault("format", "csv"));
+        boolean xlsx = "xlsx".equalsIgnoreCase(options.getOrDefault("format", output.endsWith(".xlsx") ? "xlsx" : "csv"));
+
+        try (ConnectionPool pool = ConnectionPool.fromEnv(dotenv)) {
+            ProductExport export = new ProductExport(pool, Integer.parseInt(dotenv.get("EXPORT_FETCH_SIZE", "1000")));
+            long startedAt = System.nanoTime();
+            long rows;
+            try (OutputStream out = new FileOutputStream(output);
+                 ExportSink sink = xlsx ? new XlsxSink(out, tableName) : new CsvSink(out)) {
+                rows = export.export(tableName, options, sink);
+            }
+            LOGGER.info(String.format("Exported %d rows of %s to %s in %.1f s", rows, tableName, output, (System.nanoTime() - startedAt) / 1e9));
+        } catch (IOException | SQLException | RuntimeException e) {
+            LOGGER.error("Error exporting " + tableName + " to " + output + ": " + e.getMessage());
+        }
+    }
+
+    // Stream the filtered rows of the table into the sink, returns the number of rows
+    public long export(String tableName, Map<String, String> filters, ExportSink sink) throws SQLException, IOException {
+        List<Object> parameters = new ArrayList<>();
+        String sql = "SELECT " + COLUMNS + " FROM " + tableName + getWhereClause(filters, parameters) + " ORDER BY monthly_sold DESC NULLS LAST, asin";
+
+        PooledConnection connection = null;
+        try {
+            connection = connectionPool.acquire();
+            Connection jdbcConnection = connection.getConnection();
+            // The driver only uses a cursor inside a transaction
+            jdbcConnection.setAutoCommit(false);
+
+            long rows = 0;
+            try (PreparedStatement preparedStatement = jdbcConnection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                preparedStatement.setFetchSize(fetchSize);
+                for (int i = 0; i < parameters.size(); i++) {
+                    preparedStatement.setObject(i + 1, parameters.get(i));
+                }
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    ResultSetMetaData metaData = resultSet.getMetaData();
+                    String[] columnNames = new String[metaData.getColumnCount()];
+                    int[] columnTypes = new int[columnNames.length];
+                    for (int i = 0; i < columnNames.length; i++) {
+                        columnNames[i] = metaData.getColumnLabel(i + 1);
+                        columnTypes[i] = metaData.getColumnType(i + 1);
+                    }
+                    sink.writeHeader(columnNames);
+                    while (resultSet.next()) {
+                        sink.writeRow(resultSet, columnTypes);
+                        if (++rows % PROGRESS_ROWS == 0) {
+                            LOGGER.info("Exported " + rows + " rows of " + tableName);
+                        }
+                    }
+                }
+            }
+            jdbcConnection.commit();
+            jdbcConnection.setAutoCommit(true);
+
+            connectionPool.release(connection);
+            connection = null;
+            return rows;
+        } finally {
+            // A connection that is still held here failed and is not reused
+            if (connection != null) {
+                connectionPool.discard(connection);
+            }
+        }
+    }
+
+    // The category is the root node of the job that wrote a row, the type matches the whole Keepa product type
+    static String getWhereClause(Map<String, String> filters, List<Object> parameters) {
+        List<String> conditions = new ArrayList<>();
+        if (filters.containsKey("category")) {
+            conditions.add("category_node_id = ?");
+            parameters.add(Long.parseLong(filters.get("category")));
+        }
+        if (filters.containsKey("type")) {
+            // An equality instead of ILIKE, so % and _ in the value are no patterns
+            conditions.add("lower(type) = lower(?)");
+            parameters.add(filters.get("type"));
+        }
+        if (filters.containsKey("min-monthly-sold")) {
+            conditions.add("monthly_sold >= ?");
+            parameters.add(Integer.parseInt(filters.get("min-monthly-sold")));
+        }
+        if (filters.containsKey("min-winners")) {
+            conditions.add("winner_count_30 >= ?");
+            parameters.add(Integer.parseInt(filters.get("min-winners")));
+        }
+        if (filters.containsKey("max-winners")) {
+            conditions.add("winner_count_30 <= ?");
+            parameters.add(Integer.parseInt(filters.get("max-winners")));
+        }
+        return conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions);
+    }
+
+    // --name=value options, a bare --name is "true"
+    static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            }
+            int equals = arg.indexOf('=');
+            if (equals < 0) {
+                options.put(arg.substring(2), "true");
+            } else {
+                options.put(arg.substring(2, equals), arg.substring(equals + 1));
+            }
+        }
+        return options;
+    }
+
+    private static boolean isNumeric(int columnType) {
+        switch (columnType) {
+            case Types.INTEGER:
+            case Types.BIGINT:
+            case Types.SMALLINT:
+            case Types.DOUBLE:
+            case Types.FLOAT:
+            case Types.REAL:
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // RFC 4180 CSV in UTF-8, with a byte order mark so Excel detects the encoding
+    static class CsvSink implements ExportSink {
+        private final Writer writer;
+
+        CsvSink(OutputStream out) throws IOException {
+            this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+            writer.write('\uFEFF');
+        }
+
+        @Override
+        public void writeHeader(String[] columnNames) throws IOException {
+            for (int i = 0; i < columnNames.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writeValue(columnNames[i]);
+            }
+            writer.write("\r\n");
+        }
+
+        @Override
+        public void writeRow(ResultSet resultSet, int[] columnTypes) throws SQLException, IOException {
+            for (int i = 0; i < columnTypes.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                String value = resultSet.getString(i + 1);
+                if (value != null) {
+                    writeValue(value);
+                }
+            }
+            writer.write("\r\n");
+        }
+
+        private void writeValue(String value) throws IOException {
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+                writer.write(value);
+                return;
+            }
+            writer.write('"');
+            writer.write(value.replace("\"", "\"\""));
+            writer.write('"');
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.flush();
+        }
+    }
+
+    // Streaming workbook, a new sheet is started when one reaches the Excel row limit
+    static class XlsxSink implements ExportSink {
+        private final SXSSFWorkbook workbook;
+        private final OutputStream out;
+        private final String sheetName;
+        private final CellStyle headerStyle;
+        private final CellStyle dateStyle;
+        private String[] columnNames;
+        private SXSSFSheet sheet;
+        private int sheetCount;
+        private int rowIndex;
+
+        XlsxSink(OutputStream out, String sheetName) {
+            this.out = out;
+            this.sheetName = sheetName;
+            this.workbook = new SXSSFWorkbook(XLSX_WINDOW_ROWS);
+            workbook.setCompressTempFiles(true);
+
+            // Styles are shared by all cells, a style per cell would grow the workbook with every row
+            Font headerFont = workbook.createFont();
+            headerFont.setBold(true);
+            this.headerStyle = workbook.createCellStyle();
+            headerStyle.setFont(headerFont);
+            this.dateStyle = workbook.createCellStyle();
+            dateStyle.setDataFormat(workbook.createDataFormat().getFormat("yyyy-mm-dd hh:mm:ss"));
+        }
+
+        @Override
+        public void writeHeader(String[] columnNames) {
+            this.columnNames = columnNames;
+            startSheet();
+        }
+
+        @Override
+        public void writeRow(ResultSet resultSet, int[] columnTypes) throws SQLException {
+            if (rowIndex == XLSX_MAX_ROWS) {
+                startSheet();
+            }
+            Row row = sheet.createRow(rowIndex++);
+            for (int i = 0; i < columnTypes.length; i++) {
+                if (isNumeric(columnTypes[i])) {
+                    double value = resultSet.getDouble(i + 1);
+                    if (!resultSet.wasNull()) {
+                        row.createCell(i).setCellValue(value);
+                    }
+                } else if (columnTypes[i] == Types.TIMESTAMP) {
+                    Timestamp value = resultSet.getTimestamp(i + 1);
+                    if (value != null) {
+                        Cell cell = row.createCell(i);
+                        cell.setCellValue(value);
+                        cell.setCellStyle(dateStyle);
+                    }
+                } else {
+                    String value = resultSet.getString(i + 1);
+                    if (value != null) {
+                        row.createCell(i).setCellValue(value);
+                    }
+                }
+            }
+        }
+
+        private void startSheet() {
+            sheetCount++;
+            sheet = workbook.createSheet(sheetCount == 1 ? sheetName : sheetName + "_" + sheetCount);
+            sheet.createFreezePane(0, 1);
+            Row header = sheet.createRow(0);
+            for (int i = 0; i < columnNames.length; i++) {
+                Cell cell = header.createCell(i);
+                cell.setCellValue(columnNames[i]);
+                cell.setCellStyle(headerStyle);
+            }
+            rowIndex = 1;
+        }
+
+        // Writes the workbook from its temporary files and deletes them
+        @Override
+        public void close() throws IOException {
+            try {
+                workbook.write(out);
+            } finally {
+                workbook.dispose();
+                workbook.close();
+            }
+        }
+    }
+}
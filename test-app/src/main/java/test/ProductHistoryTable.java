@@ -0,0 +1,124 @@
+package test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.keepa.api.backend.structs.AmazonLocale;
+
+/**
+ * Table layout and statements of the append-only product_history_&lt;locale&gt; tables.
+ *
+ * The tables are partitioned by month of fetched_at. Partitions are created when
+ * the first row of a month is written and dropped as a whole once they are older
+ * than the retention, so old history never has to be deleted row by row.
+ */
+public class ProductHistoryTable {
+    public static final String COLUMNS = "asin, fetched_at, sales_current, new_price_current, buy_box_shipping_current, stock_amazon, winner_count_30, winner_count_90";
+
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("yyyyMM");
+
+    private ProductHistoryTable() {
+    }
+
+    public static String getTableName(AmazonLocale locale) {
+        return "product_history_" + locale.toString().toLowerCase();
+    }
+
+    public static String getPartitionName(String tableName, YearMonth month) {
+        return tableName + "_" + month.format(PARTITION_SUFFIX);
+    }
+
+    public static String getInsertSql(String tableName) {
+        return "INSERT INTO " + tableName + " (" + COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+    }
+
+    public static void bindInsert(PreparedStatement preparedStatement, ProductRow row, Timestamp fetchedAt) throws SQLException {
+        preparedStatement.setString(1, row.asin);
+        preparedStatement.setTimestamp(2, fetchedAt);
+        preparedStatement.setDouble(3, row.salesCurrent);
+        preparedStatement.setDouble(4, row.newPriceCurrent);
+        preparedStatement.setDouble(5, row.buyBoxShippingCurrent);
+        if (row.hasStockAmazon()) {
+            preparedStatement.setInt(6, row.stockAmazon);
+        } else {
+            preparedStatement.setNull(6, java.sql.Types.INTEGER);
+        }
+        preparedStatement.setInt(7, row.winnerCount30);
+        preparedStatement.setInt(8, row.winnerCount90);
+    }
+
+    // Create the parent table and the partition of the given month, once per pool
+    public static void ensurePartition(ConnectionPool connectionPool, PooledConnection connection, String tableName, YearMonth month) throws SQLException {
+        connectionPool.ensureTable(connection, tableName, c -> createTableIfNotExists(c.getConnection(), tableName));
+        String partitionName = getPartitionName(tableName, month);
+        connectionPool.ensureTable(connection, partitionName, c -> createPartitionIfNotExists(c.getConnection(), tableName, month));
+    }
+
+    // Drop the partitions that end before the retention starts, returns the dropped names
+    public static List<String> dropPartitionsBefore(Connection connection, String tableName, YearMonth oldestKept) throws SQLException {
+        List<String> partitions = new ArrayList<>();
+        String listSQL = "SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid WHERE i.inhparent = to_regclass(?)";
+        try (PreparedStatement preparedStatement = connection.prepareStatement(listSQL)) {
+            preparedStatement.setString(1, tableName);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    partitions.add(resultSet.getString(1));
+                }
+            }
+        }
+
+        List<String> dropped = new ArrayList<>();
+        String keptFrom = getPartitionName(tableName, oldestKept);
+        for (String partition : partitions) {
+            // Partition names end in yyyyMM, so they sort by month
+            if (partition.length() == keptFrom.length() && partition.compareTo(keptFrom) < 0) {
+                try (PreparedStatement preparedStatement = connection.prepareStatement("DROP TABLE IF EXISTS " + partition)) {
+                    preparedStatement.execute();
+                }
+                dropped.add(partition);
+            }
+        }
+        return dropped;
+    }
+
+    private static void createTableIfNotExists(Connection connection, String tableName) throws SQLException {
+        String createTableSQL = "CREATE TABLE IF NOT EXISTS " + tableName + " ("
+            + "asin TEXT NOT NULL, "
+            + "fetched_at TIMESTAMP NOT NULL, "
+            + "sales_current DOUBLE PRECISION, "
+            + "new_price_current DOUBLE PRECISION, "
+            + "buy_box_shipping_current DOUBLE PRECISION, "
+            + "stock_amazon INT, "
+            + "winner_count_30 INT, "
+            + "winner_count_90 INT"
+            + ") PARTITION BY RANGE (fetched_at);";
+        String createIndexSQL = "CREATE INDEX IF NOT EXISTS " + tableName + "_asin_idx ON " + tableName + " (asin, fetched_at)";
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(createTableSQL)) {
+            preparedStatement.execute();
+        }
+        try (PreparedStatement preparedStatement = connection.prepareStatement(createIndexSQL)) {
+            preparedStatement.execute();
+        }
+    }
+
+    private static void createPartitionIfNotExists(Connection connection, String tableName, YearMonth month) throws SQLException {
+        LocalDate from = month.atDay(1);
+        LocalDate to = month.plusMonths(1).atDay(1);
+        String createPartitionSQL = "CREATE TABLE IF NOT EXISTS " + getPartitionName(tableName, month)
+            + " PARTITION OF " + tableName
+            + " FOR VALUES FROM ('" + from + "') TO ('" + to + "')";
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(createPartitionSQL)) {
+            preparedStatement.execute();
+        }
+    }
+}
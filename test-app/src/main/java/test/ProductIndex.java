@@ -0,0 +1,101 @@
+package test;
+
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * What one products_&lt;locale&gt; table already holds per ASIN, loaded before a run.
+ *
+ * The incremental refresh compares the Keepa times (lastUpdate and
+ * lastPriceChange) of a cheap metadata request with this index to decide
+ * which ASINs need a full product request. The change detection compares the
+ * content hash of processed rows with it to decide which rows need to be
+ * written at all. Only the rows of the ASINs a run is about to process are
+ * loaded, a shard does not read the whole table.
+ */
+public class ProductIndex {
+    private static class Entry {
+        final int lastUpdate;
+        final int lastPriceChange;
+        final long lastUpdatedAt;
+        final Long rowHash;
+
+        Entry(int lastUpdate, int lastPriceChange, long lastUpdatedAt, Long rowHash) {
+            this.lastUpdate = lastUpdate;
+            this.lastPriceChange = lastPriceChange;
+            this.lastUpdatedAt = lastUpdatedAt;
+            this.rowHash = rowHash;
+        }
+    }
+
+    private final Map<String, Entry> entries;
+
+    private ProductIndex(Map<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    // An ASIN is unchanged when Keepa neither updated it nor saw a price change since the stored row and the row is not older than maxAgeMs
+    public boolean isUnchanged(String asin, int lastUpdate, int lastPriceChange, long maxAgeMs) {
+        Entry entry = entries.get(asin);
+        return entry != null
+            && lastUpdate > 0
+            && lastPriceChange > 0
+            && entry.lastUpdate == lastUpdate
+            && entry.lastPriceChange == lastPriceChange
+            && System.currentTimeMillis() - entry.lastUpdatedAt < maxAgeMs;
+    }
+
+    // Rows written before the hash column existed never match
+    public boolean hasSameContent(String asin, long contentHash) {
+        Entry entry = entries.get(asin);
+        return entry != null && entry.rowHash != null && entry.rowHash == contentHash;
+    }
+
+    public boolean isUpdatedWithin(String asin, long ageMs) {
+        Entry entry = entries.get(asin);
+        return entry != null && System.currentTimeMillis() - entry.lastUpdatedAt < ageMs;
+    }
+
+    public static ProductIndex load(ConnectionPool connectionPool, String tableName, Collection<String> asins) throws SQLException {
+        Map<String, Entry> entries = new HashMap<>();
+        PooledConnection connection = null;
+        try {
+            connection = connectionPool.acquire();
+            connectionPool.ensureTable(connection, tableName, c -> ProductTable.createTableIfNotExists(c.getConnection(), tableName));
+
+            Array asinArray = connection.getConnection().createArrayOf("varchar", asins.toArray());
+            PreparedStatement preparedStatement = connection.prepare("SELECT asin, keepa_last_update, keepa_last_price_change, last_updated, row_hash FROM " + tableName + " WHERE asin = ANY(?)");
+            preparedStatement.setArray(1, asinArray);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    // NULL Keepa times read as 0, which never counts as unchanged
+                    int lastUpdate = resultSet.getInt(2);
+                    int lastPriceChange = resultSet.getInt(3);
+                    Timestamp lastUpdated = resultSet.getTimestamp(4);
+                    long rowHash = resultSet.getLong(5);
+                    Long storedHash = resultSet.wasNull() ? null : rowHash;
+                    entries.put(resultSet.getString(1), new Entry(lastUpdate, lastPriceChange, lastUpdated != null ? lastUpdated.getTime() : 0, storedHash));
+                }
+            }
+
+            connectionPool.release(connection);
+            connection = null;
+        } finally {
+            // A connection that is still held here failed and is not reused
+            if (connection != null) {
+                connectionPool.discard(connection);
+            }
+        }
+        return new ProductIndex(entries);
+    }
+}
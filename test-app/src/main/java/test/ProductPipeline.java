@@ -0,0 +1,387 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.keepa.api.backend.structs.AmazonLocale;
+import com.keepa.api.backend.structs.Request;
+import com.keepa.api.backend.structs.Response;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Processes the ASIN batches of one job in explicit stages.
+ *
+ * ASIN batches go through Keepa fetch, JSON extraction, seller enrichment and the
+ * database writer. Every stage has its own threads and a bounded queue, so when
+ * the database is slow the fetch stage stops requesting new batches instead of
+ * buffering responses. {@link #finish()} drains the stages in order. When the
+ * workers of a stage stop, the pipeline is cancelled and submit or finish throw
+ * an IllegalStateException. A pipeline that is given up before it was finished
+ * has to be cancelled with {@link #cancel(String)}.
+ */
+public class ProductPipeline {
+    private static final Logger LOGGER = LogManager.getLogger(ProductPipeline.class);
+    private static final int PRODUCT_OFFERS = 40;
+    private static final int MINUTES_30_DAYS = 30 * 24 * 60;
+
+    // Thread counts and queue capacity of the stages
+    public static class Settings {
+        // Skipped rows keep the values of their last full fetch and are deleted after 30 days, so they are fetched again a day before
+        private static final long MAX_INCREMENTAL_AGE_MS = TimeUnit.DAYS.toMillis(29);
+
+        final int fetchThreads;
+        final int extractThreads;
+        final int enrichThreads;
+        final int writeThreads;
+        final int queueCapacity;
+        final boolean singleFetch;
+        final boolean incremental;
+        final long incrementalMaxAgeMs;
+        final boolean changeDetection;
+        final long touchAfterMs;
+
+        public Settings(int fetchThreads, int extractThreads, int enrichThreads, int writeThreads, int queueCapacity, boolean singleFetch, boolean incremental, long incrementalMaxAgeMs, boolean changeDetection, long touchAfterMs) {
+            this.fetchThreads = fetchThreads;
+            this.extractThreads = extractThreads;
+            this.enrichThreads = enrichThreads;
+            this.writeThreads = writeThreads;
+            this.queueCapacity = queueCapacity;
+            this.singleFetch = singleFetch;
+            this.incremental = incremental;
+            this.incrementalMaxAgeMs = incrementalMaxAgeMs;
+            this.changeDetection = changeDetection;
+            this.touchAfterMs = touchAfterMs;
+        }
+
+        // Both the incremental refresh and the change detection compare with the stored products
+        public boolean usesProductIndex() {
+            return incremental || changeDetection;
+        }
+
+        public static Settings fromEnv(Dotenv dotenv) {
+            return new Settings(
+                Integer.parseInt(dotenv.get("PIPELINE_FETCH_THREADS", "4")),
+                Integer.parseInt(dotenv.get("PIPELINE_EXTRACT_THREADS", "2")),
+                Integer.parseInt(dotenv.get("PIPELINE_ENRICH_THREADS", "2")),
+                Integer.parseInt(dotenv.get("PIPELINE_WRITE_THREADS", "1")),
+                Integer.parseInt(dotenv.get("PIPELINE_QUEUE_CAPACITY", "4")),
+                "single".equalsIgnoreCase(dotenv.get("FETCH_MODE", "dual")),
+                "incremental".equalsIgnoreCase(dotenv.get("REFRESH_MODE", "full")),
+                Math.min(TimeUnit.HOURS.toMillis(Long.parseLong(dotenv.get("INCREMENTAL_MAX_AGE_HOURS", "24"))), MAX_INCREMENTAL_AGE_MS),
+                Boolean.parseBoolean(dotenv.get("CHANGE_DETECTION", "false")),
+                TimeUnit.HOURS.toMillis(Long.parseLong(dotenv.get("CHANGE_TOUCH_AFTER_HOURS", "24"))));
+        }
+    }
+
+    // The Keepa responses of one ASIN batch, there is no sellers result in single fetch mode
+    private static class FetchedBatch {
+        final List<String> asins;
+        final Response sellersResult;
+        final Response productResult;
+
+        FetchedBatch(List<String> asins, Response sellersResult, Response productResult) {
+            this.asins = asins;
+            this.sellersResult = sellersResult;
+            this.productResult = productResult;
+        }
+    }
+
+    // The extracted products of one ASIN batch with their buy box winner counts
+    static class ExtractedBatch {
+        final List<String> asins;
+        final Map<String, KeepaProduct> products;
+        final Map<String, Integer> winnerCounts30;
+        final Map<String, Integer> winnerCounts90;
+
+        ExtractedBatch(List<String> asins, Map<String, KeepaProduct> products, Map<String, Integer> winnerCounts30, Map<String, Integer> winnerCounts90) {
+            this.asins = asins;
+            this.products = products;
+            this.winnerCounts30 = winnerCounts30;
+            this.winnerCounts90 = winnerCounts90;
+        }
+    }
+
+    private final AmazonLocale locale;
+    private final long categoryNodeId;
+    private final RequestScheduler scheduler;
+    private final SellerCache sellerCache;
+    private final ResponseArchive responseArchive;
+    private final ProductWriter writer;
+    private final boolean singleFetch;
+    private final ProductIndex productIndex;
+    private final RunCheckpoint checkpoint;
+    private final boolean incremental;
+    private final long incrementalMaxAgeMs;
+    private final boolean changeDetection;
+    private final long touchAfterMs;
+
+    private final PipelineStage<List<String>> fetchStage;
+    private final PipelineStage<FetchedBatch> extractStage;
+    private final PipelineStage<ExtractedBatch> enrichStage;
+    private final PipelineStage<List<ProductRow>> writeStage;
+    private final List<PipelineStage<?>> stages;
+    private final AtomicLong failedProducts = new AtomicLong();
+
+    // Without a product index every batch is fetched and written in full, without a checkpoint nothing is recorded
+    public ProductPipeline(AmazonLocale locale, long categoryNodeId, RequestScheduler scheduler, SellerCache sellerCache, ResponseArchive responseArchive, ProductWriter writer, Settings settings, ProductIndex productIndex, RunCheckpoint checkpoint) {
+        this.locale = locale;
+        this.categoryNodeId = categoryNodeId;
+        this.scheduler = scheduler;
+        this.sellerCache = sellerCache;
+        this.responseArchive = responseArchive;
+        this.writer = writer;
+        this.singleFetch = settings.singleFetch;
+        this.productIndex = productIndex;
+        this.checkpoint = checkpoint;
+        this.incremental = settings.incremental && productIndex != null;
+        this.incrementalMaxAgeMs = settings.incrementalMaxAgeMs;
+        this.changeDetection = settings.changeDetection && productIndex != null;
+        this.touchAfterMs = settings.touchAfterMs;
+
+        // Stages are created from the end so each one can hand over to the next
+        String prefix = "pipeline-" + locale.toString().toLowerCase();
+        this.writeStage = new PipelineStage<>(prefix + "-write", settings.writeThreads, settings.queueCapacity, this::write);
+        this.enrichStage = new PipelineStage<>(prefix + "-enrich", settings.enrichThreads, settings.queueCapacity, this::enrich);
+        this.extractStage = new PipelineStage<>(prefix + "-extract", settings.extractThreads, settings.queueCapacity, this::extract);
+        this.fetchStage = new PipelineStage<>(prefix + "-fetch", settings.fetchThreads, settings.queueCapacity, this::fetch);
+        this.stages = Arrays.asList(fetchStage, extractStage, enrichStage, writeStage);
+    }
+
+    // Blocks while the fetch stage is busy
+    public void submit(List<String> asinBatch) throws InterruptedException {
+        checkStages();
+        try {
+            fetchStage.submit(asinBatch);
+        } catch (IllegalStateException e) {
+            abort(e);
+            throw e;
+        }
+    }
+
+    // Drain every stage in order, then write what is left in the writer buffer
+    public void finish() throws InterruptedException {
+        try {
+            fetchStage.close();
+            extractStage.close();
+            enrichStage.close();
+            writeStage.close();
+        } catch (IllegalStateException e) {
+            abort(e);
+            throw e;
+        }
+        writer.finish();
+        LOGGER.info("Pipeline " + locale + " drained: " + fetchStage + ", " + extractStage + ", " + enrichStage + ", " + writeStage);
+    }
+
+    // Stop the stage threads of a pipeline that will not be finished, the queued batches are dropped
+    public void cancel(String reason) {
+        abort(new IllegalStateException(reason));
+    }
+
+    // A stage without workers cancels the whole pipeline, the stages in front of it would only fail item by item
+    private void checkStages() {
+        for (PipelineStage<?> stage : stages) {
+            Throwable failure = stage.getFailure();
+            if (failure != null) {
+                IllegalStateException e = new IllegalStateException("Pipeline " + locale + " cancelled, stage " + stage + " failed: " + failure.getMessage(), failure);
+                abort(e);
+                throw e;
+            }
+        }
+    }
+
+    // Batches a stage failed on and products that could not be processed, none of them reached the writer
+    public long getFailures() {
+        long failures = failedProducts.get();
+        for (PipelineStage<?> stage : stages) {
+            failures += stage.getFailedItems();
+        }
+        return failures;
+    }
+
+    private void abort(Throwable cause) {
+        LOGGER.error("Cancelling pipeline " + locale + ": " + cause.getMessage());
+        for (PipelineStage<?> stage : stages) {
+            stage.abort(cause);
+        }
+    }
+
+    private void fetch(List<String> asins) throws Exception {
+        List<String> batch = incremental ? getChangedAsins(asins) : asins;
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        String asinBatch = String.join(",", batch);
+        int estimatedCost = RequestScheduler.estimateProductCost(batch.size(), PRODUCT_OFFERS);
+
+        if (singleFetch) {
+            // One request with 90-day stats and history, the 30-day values are derived locally
+            Request productRequest = Request.getProductRequest(locale, 90, PRODUCT_OFFERS, asinBatch);
+            productRequest.parameter.put("stock", "1");
+            extractStage.submit(new FetchedBatch(batch, null, scheduler.submit(productRequest, estimatedCost).join()));
+            return;
+        }
+
+        // Request for seller data and product data of the same batch of ASINs
+        Request sellersRequest = Request.getProductRequest(locale, 90, PRODUCT_OFFERS, asinBatch);
+        Request productRequest = Request.getProductRequest(locale, 30, PRODUCT_OFFERS, asinBatch);
+        productRequest.parameter.put("stock", "1");
+
+        CompletableFuture<Response> sellersFuture = scheduler.submit(sellersRequest, estimatedCost);
+        CompletableFuture<Response> productFuture = scheduler.submit(productRequest, estimatedCost);
+        extractStage.submit(new FetchedBatch(batch, sellersFuture.join(), productFuture.join()));
+    }
+
+    // Ask Keepa only for the product times, skip the unchanged ASINs and return the others
+    private List<String> getChangedAsins(List<String> asins) throws Exception {
+        Request metadataRequest = Request.getProductRequest(locale, 90, PRODUCT_OFFERS, String.join(",", asins));
+        metadataRequest.parameter.remove("stats");
+        metadataRequest.parameter.remove("offers");
+        metadataRequest.parameter.put("history", "0");
+        // Without offers, stats and history the request costs one token per ASIN
+        Response metadataResult = scheduler.submit(metadataRequest, RequestScheduler.estimateProductCost(asins.size(), 0)).join();
+
+        Map<String, KeepaProduct> metadata = new HashMap<>();
+        for (KeepaProduct product : KeepaResponseParser.parseProducts(metadataResult)) {
+            metadata.put(product.getAsin(), product);
+        }
+
+        List<String> changed = new ArrayList<>(asins.size());
+        List<String> unchanged = new ArrayList<>();
+        for (String asin : asins) {
+            KeepaProduct product = metadata.get(asin);
+            if (product != null && productIndex.isUnchanged(asin, product.getLastUpdate(), product.getLastPriceChange(), incrementalMaxAgeMs)) {
+                unchanged.add(asin);
+            } else {
+                changed.add(asin);
+            }
+        }
+        // Skipped, not touched: last_updated stays at the last full fetch, which bounds how stale the 30-day values get
+        writer.skip(unchanged, checkpoint);
+        Metrics.ASINS_PROCESSED.add(unchanged.size(), locale.toString());
+        LOGGER.info("Incremental check of " + asins.size() + " ASINs of " + locale + " used " + metadataResult.tokensConsumed + " tokens, " + unchanged.size() + " unchanged");
+        return changed;
+    }
+
+    private void extract(FetchedBatch batch) throws Exception {
+        List<KeepaProduct> sellerProducts = null;
+        if (batch.sellersResult != null) {
+            responseArchive.save("sellers_data_" + locale, batch.sellersResult);
+            sellerProducts = KeepaResponseParser.parseProducts(batch.sellersResult);
+        }
+        responseArchive.save("batch_data_" + locale, batch.productResult);
+
+        List<KeepaProduct> products = KeepaResponseParser.parseProducts(batch.productResult, singleFetch);
+        enrichStage.submit(extractProducts(batch.asins, sellerProducts, products, KeepaHistory.nowKeepaMinutes()));
+    }
+
+    // Winner counts and 30-day values of one batch, there are no seller products in single fetch mode
+    static ExtractedBatch extractProducts(List<String> asins, List<KeepaProduct> sellerProducts, List<KeepaProduct> products, int nowKeepaMinutes) {
+        Map<String, Integer> asinToWinnerCount30 = new HashMap<>();
+        Map<String, Integer> asinToWinnerCount90 = new HashMap<>();
+
+        if (sellerProducts != null) {
+            // Collect ASINs and their winner counts from seller data
+            for (KeepaProduct sellerProduct : sellerProducts) {
+                asinToWinnerCount90.put(sellerProduct.getAsin(), sellerProduct.getBuyBoxStatsCount());
+            }
+        }
+
+        // Map to store product data by ASIN
+        Map<String, KeepaProduct> asinToProductData = new LinkedHashMap<>();
+        for (KeepaProduct product : products) {
+            String asin = product.getAsin();
+            asinToProductData.put(asin, product);
+            if (sellerProducts == null) {
+                // Keepa reports avg30 with any stats interval, it is only computed from the csv history when it is missing
+                asinToWinnerCount90.put(asin, product.getBuyBoxStatsCount());
+                asinToWinnerCount30.put(asin, KeepaHistory.countBuyBoxWinnersSince(product.buyBoxSellerIdHistory, nowKeepaMinutes - MINUTES_30_DAYS));
+                product.addAvg30FromHistory(nowKeepaMinutes - MINUTES_30_DAYS, nowKeepaMinutes);
+            } else {
+                asinToWinnerCount30.put(asin, product.getBuyBoxStatsCount());
+            }
+        }
+
+        return new ExtractedBatch(asins, asinToProductData, asinToWinnerCount30, asinToWinnerCount90);
+    }
+
+    private void enrich(ExtractedBatch batch) throws InterruptedException {
+        // Look up the buy box sellers of the whole batch together
+        sellerCache.prefetch(locale, getLastBuyBoxSellerIds(batch.products.values()));
+
+        // Process each product in the order of ASINs from the original list
+        List<ProductRow> rows = new ArrayList<>(batch.products.size());
+        for (String asin : batch.asins) {
+            KeepaProduct product = batch.products.get(asin);
+            if (product != null && batch.winnerCounts90.containsKey(asin)) {
+                ProductRow row = processProductData(product, batch.winnerCounts30.getOrDefault(asin, 0), batch.winnerCounts90.get(asin));
+                if (row != null) {
+                    rows.add(row);
+                }
+            }
+        }
+        writeStage.submit(rows);
+    }
+
+    private void write(List<ProductRow> rows) {
+        Metrics.ASINS_PROCESSED.add(rows.size(), locale.toString());
+        if (!changeDetection) {
+            for (ProductRow row : rows) {
+                writer.add(row, checkpoint);
+            }
+            return;
+        }
+
+        // Unchanged rows are skipped, or only touched so they do not age into the 30-day delete
+        List<String> skipped = new ArrayList<>();
+        List<String> touched = new ArrayList<>();
+        for (ProductRow row : rows) {
+            if (!productIndex.hasSameContent(row.asin, row.contentHash)) {
+                writer.add(row, checkpoint);
+            } else if (productIndex.isUpdatedWithin(row.asin, touchAfterMs)) {
+                skipped.add(row.asin);
+            } else {
+                touched.add(row.asin);
+            }
+        }
+        writer.skip(skipped, checkpoint);
+        writer.touch(touched, checkpoint);
+    }
+
+    private Set<String> getLastBuyBoxSellerIds(Collection<KeepaProduct> products) {
+        Set<String> sellerIds = new LinkedHashSet<>();
+        for (KeepaProduct product : products) {
+            if (product.getLastBuyBoxSellerId() != null) {
+                sellerIds.add(product.getLastBuyBoxSellerId());
+            }
+        }
+        return sellerIds;
+    }
+
+    private ProductRow processProductData(KeepaProduct product, int winnerCount30, int winnerCount90) {
+        try {
+            // The seller names of the batch were prefetched, this only waits for that lookup
+            String sellerName = sellerCache.getSellerName(locale, product.getLastBuyBoxSellerId()).join();
+            return new ProductRow(product, categoryNodeId, sellerName, winnerCount30, winnerCount90);
+        } catch (Exception e) {
+            failedProducts.incrementAndGet();
+            LOGGER.error("Error processing product data: " + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package test;
+
+/**
+ * One processed product, as it is written to the products_&lt;locale&gt; table.
+ *
+ * Built from a {@link KeepaProduct} with the looked up seller name and the buy
+ * box winner counts. Prices are converted from Keepa cents to Euros here.
+ *
+ * Fees are kept in cents as Keepa reports them, the conversion to Euros
+ * happens when the row is bound to a statement. lastUpdate and lastPriceChange
+ * are the Keepa times of the product, used by the incremental refresh.
+ * categoryNodeId is the root node of the job that wrote the row.
+ * contentHash covers every stored value except the update times, so two rows
+ * with the same hash need not be written again.
+ */
+public class ProductRow {
+    public final String title;
+    public final double salesCurrent;
+    public final double salesAvg30;
+    public final int monthlySold;
+    public final double buyBoxShippingCurrent;
+    public final double buyBoxShippingAvg30;
+    public final String sellerName;
+    public final int winnerCount30;
+    public final int winnerCount90;
+    public final int buyBoxEligibleOfferCount;
+    public final int stockAmazon;
+    public final double newPriceCurrent;
+    public final double newPriceAvg30;
+    public final double pickAndPackFee;
+    public final double referralFeePercentage;
+    public final double referralFeeBuyBox;
+    public final String asin;
+    public final String eanList;
+    public final String type;
+    public final String brand;
+    public final int lastUpdate;
+    public final int lastPriceChange;
+    public final long categoryNodeId;
+    public final long contentHash;
+
+    public ProductRow(KeepaProduct product, long categoryNodeId, String sellerName, int winnerCount30, int winnerCount90) {
+        this.title = product.title;
+        this.salesCurrent = product.salesCurrent;
+        this.salesAvg30 = product.salesAvg30;
+        this.monthlySold = product.monthlySold;
+        this.buyBoxShippingCurrent = product.buyBoxShippingCurrent / 100.0;
+        this.buyBoxShippingAvg30 = product.buyBoxShippingAvg30 / 100.0;
+        this.sellerName = sellerName;
+        this.winnerCount30 = winnerCount30;
+        this.winnerCount90 = winnerCount90;
+        this.buyBoxEligibleOfferCount = product.buyBoxEligibleOfferCount;
+        this.stockAmazon = product.stockAmazon;
+        this.newPriceCurrent = product.newCurrent / 100.0;
+        this.newPriceAvg30 = product.newAvg30 / 100.0;
+        this.pickAndPackFee = product.pickAndPackFee;
+        this.referralFeePercentage = product.referralFeePercentage;
+        this.referralFeeBuyBox = product.buyBoxPrice * (product.referralFeePercentage / 100);
+        this.asin = product.asin;
+        this.eanList = product.eanList;
+        this.type = product.type;
+        this.brand = product.brand;
+        this.lastUpdate = product.lastUpdate;
+        this.lastPriceChange = product.lastPriceChange;
+        this.categoryNodeId = categoryNodeId;
+        this.contentHash = computeContentHash();
+    }
+
+    // Stock is unknown to Keepa when it reports -2, stored as NULL
+    public boolean hasStockAmazon() {
+        return stockAmazon != -2;
+    }
+
+    public double getFbaFeeEuros() {
+        return pickAndPackFee / 100;  // Convert cents to Euros
+    }
+
+    public double getReferralFeeBuyBoxEuros() {
+        return Math.round((referralFeeBuyBox / 100) * 100.0) / 100.0; // Convert cents to Euros
+    }
+
+    // 64-bit FNV-1a over the stored values, stable between runs unlike Object.hashCode
+    private long computeContentHash() {
+        long hash = 0xcbf29ce484222325L;
+        hash = hash(hash, title);
+        hash = hash(hash, Double.doubleToLongBits(salesCurrent));
+        hash = hash(hash, Double.doubleToLongBits(salesAvg30));
+        hash = hash(hash, monthlySold);
+        hash = hash(hash, Double.doubleToLongBits(buyBoxShippingCurrent));
+        hash = hash(hash, Double.doubleToLongBits(buyBoxShippingAvg30));
+        hash = hash(hash, sellerName);
+        hash = hash(hash, winnerCount30);
+        hash = hash(hash, winnerCount90);
+        hash = hash(hash, buyBoxEligibleOfferCount);
+        hash = hash(hash, stockAmazon);
+        hash = hash(hash, Double.doubleToLongBits(newPriceCurrent));
+        hash = hash(hash, Double.doubleToLongBits(newPriceAvg30));
+        hash = hash(hash, Double.doubleToLongBits(pickAndPackFee));
+        hash = hash(hash, Double.doubleToLongBits(referralFeePercentage));
+        hash = hash(hash, Double.doubleToLongBits(referralFeeBuyBox));
+        hash = hash(hash, asin);
+        hash = hash(hash, eanList);
+        hash = hash(hash, type);
+        hash = hash(hash, brand);
+        hash = hash(hash, categoryNodeId);
+        return hash;
+    }
+
+    private static long hash(long hash, long value) {
+        for (int i = 0; i < 8; i++) {
+            hash ^= (value >>> (i * 8)) & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    // Null and empty strings differ by the length marker
+    private static long hash(long hash, String value) {
+        if (value == null) {
+            return hash(hash, -1L);
+        }
+        hash = hash(hash, value.length());
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,149 @@
+package test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.keepa.api.backend.structs.AmazonLocale;
+
+/**
+ * Table layout and statements of the products_&lt;locale&gt; tables.
+ */
+public class ProductTable {
+    // Column order shared by the upsert, the COPY staging table and the merge
+    public static final String COLUMNS = "title, sales_current, sales_avg30, monthly_sold, buy_box_shipping_current, buy_box_shipping_avg30, seller_name, winner_count_30, winner_count_90, buy_box_eligible_offer_count, stock_amazon, new_price_current, new_price_avg30, fba_fees, referral_fee_percentage, referral_buybox_fee, asin, ean_list, type, brand, last_updated, keepa_last_update, keepa_last_price_change, row_hash, category_node_id";
+
+    private static final String ON_CONFLICT_UPDATE = "ON CONFLICT (asin) DO UPDATE "
+                       + "SET title = EXCLUDED.title, sales_current = EXCLUDED.sales_current, sales_avg30 = EXCLUDED.sales_avg30, monthly_sold = EXCLUDED.monthly_sold, "
+                       + "buy_box_shipping_current = EXCLUDED.buy_box_shipping_current, buy_box_shipping_avg30 = EXCLUDED.buy_box_shipping_avg30, seller_name = EXCLUDED.seller_name, "
+                       + "winner_count_30 = EXCLUDED.winner_count_30, winner_count_90 = EXCLUDED.winner_count_90, buy_box_eligible_offer_count = EXCLUDED.buy_box_eligible_offer_count, "
+                       + "stock_amazon = EXCLUDED.stock_amazon, new_price_current = EXCLUDED.new_price_current, new_price_avg30 = EXCLUDED.new_price_avg30, fba_fees = EXCLUDED.fba_fees, "
+                       + "referral_fee_percentage = EXCLUDED.referral_fee_percentage, referral_buybox_fee = EXCLUDED.referral_buybox_fee, ean_list = EXCLUDED.ean_list, type = EXCLUDED.type, "
+                       + "brand = EXCLUDED.brand, last_updated = NOW(), keepa_last_update = EXCLUDED.keepa_last_update, keepa_last_price_change = EXCLUDED.keepa_last_price_change, row_hash = EXCLUDED.row_hash, "
+                       + "category_node_id = EXCLUDED.category_node_id";
+
+    private static final Map<String, String> UPSERT_SQL = new ConcurrentHashMap<>();
+
+    private ProductTable() {
+    }
+
+    public static String getTableName(AmazonLocale locale) {
+        return "products_" + locale.toString().toLowerCase();
+    }
+
+    public static String getUpsertSql(String tableName) {
+        return UPSERT_SQL.computeIfAbsent(tableName, t -> "INSERT INTO " + t + " (" + COLUMNS + ") "
+                       + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) "
+                       + ON_CONFLICT_UPDATE);
+    }
+
+    public static String getStagingTableName(String tableName) {
+        return "staging_" + tableName;
+    }
+
+    // Move the staged rows into the table, the latest row wins when an ASIN was staged twice
+    public static String getMergeSql(String tableName) {
+        return "INSERT INTO " + tableName + " (" + COLUMNS + ") "
+             + "SELECT DISTINCT ON (asin) " + COLUMNS + " FROM " + getStagingTableName(tableName) + " "
+             + "ORDER BY asin, last_updated DESC "
+             + ON_CONFLICT_UPDATE;
+    }
+
+    // Keep rows of unchanged products from being deleted as old data
+    public static String getTouchSql(String tableName) {
+        return "UPDATE " + tableName + " SET last_updated = NOW() WHERE asin = ANY(?)";
+    }
+
+    public static String getDeleteOldDataSql(String tableName) {
+        return "DELETE FROM " + tableName + " WHERE last_updated < NOW() - INTERVAL '30 days'";
+    }
+
+    // Set the values of the upsert statement for one product
+    public static void bindUpsert(PreparedStatement preparedStatement, ProductRow row, java.sql.Timestamp lastUpdated) throws SQLException {
+        preparedStatement.setString(1, row.title);
+        preparedStatement.setDouble(2, row.salesCurrent);
+        preparedStatement.setDouble(3, row.salesAvg30);
+        preparedStatement.setInt(4, row.monthlySold);
+        preparedStatement.setDouble(5, row.buyBoxShippingCurrent);
+        preparedStatement.setDouble(6, row.buyBoxShippingAvg30);
+        preparedStatement.setString(7, row.sellerName);
+        preparedStatement.setInt(8, row.winnerCount30);
+        preparedStatement.setInt(9, row.winnerCount90);
+        preparedStatement.setInt(10, row.buyBoxEligibleOfferCount);
+        if (row.hasStockAmazon()) {
+            preparedStatement.setInt(11, row.stockAmazon);
+        } else {
+            preparedStatement.setNull(11, java.sql.Types.INTEGER);
+        }
+        preparedStatement.setDouble(12, row.newPriceCurrent);
+        preparedStatement.setDouble(13, row.newPriceAvg30);
+        preparedStatement.setDouble(14, row.getFbaFeeEuros());
+        preparedStatement.setDouble(15, row.referralFeePercentage);
+        preparedStatement.setDouble(16, row.getReferralFeeBuyBoxEuros());
+        preparedStatement.setString(17, row.asin);
+        preparedStatement.setString(18, row.eanList);
+        preparedStatement.setString(19, row.type);
+        preparedStatement.setString(20, row.brand);
+        preparedStatement.setTimestamp(21, lastUpdated);
+        preparedStatement.setInt(22, row.lastUpdate);
+        preparedStatement.setInt(23, row.lastPriceChange);
+        preparedStatement.setLong(24, row.contentHash);
+        preparedStatement.setLong(25, row.categoryNodeId);
+    }
+
+    public static void createTableIfNotExists(Connection connection, String tableName) throws SQLException {
+        String createTableSQL = "CREATE TABLE IF NOT EXISTS " + tableName + " ("
+            + "title TEXT, "
+            + "sales_current DOUBLE PRECISION, "
+            + "sales_avg30 DOUBLE PRECISION, "
+            + "monthly_sold INT, "
+            + "buy_box_shipping_current DOUBLE PRECISION, "
+            + "buy_box_shipping_avg30 DOUBLE PRECISION, "
+            + "seller_name TEXT, "
+            + "winner_count_30 INT, "
+            + "winner_count_90 INT, "
+            + "buy_box_eligible_offer_count INT, "
+            + "stock_amazon INT, "
+            + "new_price_current DOUBLE PRECISION, "
+            + "new_price_avg30 DOUBLE PRECISION, "
+            + "fba_fees DOUBLE PRECISION, "
+            + "referral_fee_percentage DOUBLE PRECISION, "
+            + "referral_buybox_fee DOUBLE PRECISION, "
+            + "asin VARCHAR(20) PRIMARY KEY, "
+            + "ean_list TEXT, "
+            + "type TEXT, "
+            + "brand TEXT, "
+            + "last_updated TIMESTAMP, "
+            + "keepa_last_update INT, "
+            + "keepa_last_price_change INT, "
+            + "row_hash BIGINT, "
+            + "category_node_id BIGINT"
+            + ");";
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(createTableSQL)) {
+            preparedStatement.execute();
+        }
+
+        // Tables created by earlier versions lack the Keepa times, the row hash and the category node
+        String alterTableSQL = "ALTER TABLE " + tableName + " "
+            + "ADD COLUMN IF NOT EXISTS keepa_last_update INT, "
+            + "ADD COLUMN IF NOT EXISTS keepa_last_price_change INT, "
+            + "ADD COLUMN IF NOT EXISTS row_hash BIGINT, "
+            + "ADD COLUMN IF NOT EXISTS category_node_id BIGINT";
+        try (PreparedStatement preparedStatement = connection.prepareStatement(alterTableSQL)) {
+            preparedStatement.execute();
+        }
+    }
+
+    // Session-local table with the same columns, used as COPY target
+    public static void createStagingTable(Connection connection, String tableName) throws SQLException {
+        String createStagingSQL = "CREATE TEMPORARY TABLE IF NOT EXISTS " + getStagingTableName(tableName)
+            + " (LIKE " + tableName + " INCLUDING DEFAULTS)";
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(createStagingSQL)) {
+            preparedStatement.execute();
+        }
+    }
+}
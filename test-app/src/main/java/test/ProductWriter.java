@@ -0,0 +1,360 @@
+package test;
+
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Collects processed products and writes them to one products_&lt;locale&gt; table
+ * in batches.
+ *
+ * A batch is written when the buffer reaches the configured size or when the
+ * flush interval has passed, whichever comes first. Every batch is sent as one
+ * JDBC batch in a single transaction. When a row belongs to a checkpointed run
+ * its ASIN is recorded in the same transaction, and with a history table every
+ * written row is also appended there. When the batch fails its rows are written
+ * again one per transaction, so one bad row only loses itself. Rows that still
+ * fail are counted in {@link #getFailedRows()} and in the failures of their
+ * runs, see {@link RunCheckpoint#getFailedAsins()}.
+ */
+public class ProductWriter implements AutoCloseable {
+    private static final Logger LOGGER = LogManager.getLogger(ProductWriter.class);
+
+    // The counters of the writer over a time span, since() narrows a snapshot to the run that started with another one
+    public static class Statistics {
+        final long startedAtNanos;
+        final long endedAtNanos;
+        final long written;
+        final long writeNanos;
+        final long skipped;
+        final long touched;
+        final long failed;
+
+        Statistics(long startedAtNanos, long endedAtNanos, long written, long writeNanos, long skipped, long touched, long failed) {
+            this.startedAtNanos = startedAtNanos;
+            this.endedAtNanos = endedAtNanos;
+            this.written = written;
+            this.writeNanos = writeNanos;
+            this.skipped = skipped;
+            this.touched = touched;
+            this.failed = failed;
+        }
+
+        public Statistics since(Statistics start) {
+            return new Statistics(start.endedAtNanos, endedAtNanos, written - start.written, writeNanos - start.writeNanos,
+                skipped - start.skipped, touched - start.touched, failed - start.failed);
+        }
+
+        @Override
+        public String toString() {
+            double writeSeconds = writeNanos / 1e9;
+            double wallSeconds = (endedAtNanos - startedAtNanos) / 1e9;
+            return String.format("%d written, %d unchanged skipped, %d unchanged touched, %d failed (%.1f rows/sec (write), %.1f rows/sec (wall))",
+                written, skipped, touched, failed, writeSeconds > 0 ? written / writeSeconds : 0, wallSeconds > 0 ? written / wallSeconds : 0);
+        }
+    }
+
+    // Rows taken from the buffer together with the ASINs to checkpoint per run
+    private static class PendingBatch {
+        final List<ProductRow> rows;
+        final Map<RunCheckpoint, List<String>> checkpoints;
+
+        PendingBatch(List<ProductRow> rows, Map<RunCheckpoint, List<String>> checkpoints) {
+            this.rows = rows;
+            this.checkpoints = checkpoints;
+        }
+    }
+
+    protected final ConnectionPool connectionPool;
+    protected final String tableName;
+    protected final String historyTableName;
+    private final int batchSize;
+    private final long flushIntervalMs;
+
+    protected final Object writeLock = new Object();
+    private final ThroughputCounter throughput = new ThroughputCounter();
+    private final ScheduledExecutorService flushTimer;
+    private final long createdAtNanos = System.nanoTime();
+    private final AtomicLong touched = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    private List<ProductRow> buffer;
+    private Map<RunCheckpoint, List<String>> bufferCheckpoints = new HashMap<>();
+    private long lastFlushAt = System.currentTimeMillis();
+
+    // The history table name is null when no history is kept
+    public ProductWriter(ConnectionPool connectionPool, String tableName, String historyTableName, int batchSize, long flushIntervalMs) {
+        this.connectionPool = connectionPool;
+        this.tableName = tableName;
+        this.historyTableName = historyTableName;
+        this.batchSize = batchSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.buffer = new ArrayList<>(batchSize);
+
+        this.flushTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "writer-flush-" + tableName);
+            thread.setDaemon(true);
+            return thread;
+        });
+        flushTimer.scheduleWithFixedDelay(this::flushIfDue, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public ThroughputCounter getThroughput() {
+        return throughput;
+    }
+
+    // Rows that could not be written or touched, they are not in the table with their current values
+    public long getFailedRows() {
+        return failed.get();
+    }
+
+    // Written, skipped, touched and failed rows since the writer was created, see Statistics.since for one run
+    public Statistics getStatistics() {
+        return new Statistics(createdAtNanos, System.nanoTime(), throughput.getRows(), throughput.getWriteNanos(), skipped.get(), touched.get(), failed.get());
+    }
+
+    // Products that are stored unchanged and recently enough are not written, only checkpointed
+    public void skip(List<String> asins, RunCheckpoint checkpoint) {
+        if (asins.isEmpty()) {
+            return;
+        }
+        skipped.addAndGet(asins.size());
+        if (checkpoint == null) {
+            return;
+        }
+
+        PooledConnection connection = null;
+        try {
+            connection = connectionPool.acquire();
+            checkpoint.record(connection, asins);
+            connectionPool.release(connection);
+            connection = null;
+        } catch (SQLException e) {
+            LOGGER.error("Error checkpointing " + asins.size() + " skipped products of table " + tableName + ": " + e.getMessage());
+        } finally {
+            // A connection that is still held here failed and is not reused
+            if (connection != null) {
+                connectionPool.discard(connection);
+            }
+        }
+    }
+
+    // Mark rows of unchanged products as current without rewriting them
+    public void touch(List<String> asins, RunCheckpoint checkpoint) {
+        if (asins.isEmpty()) {
+            return;
+        }
+
+        PooledConnection connection = null;
+        try {
+            connection = connectionPool.acquire();
+            connectionPool.ensureTable(connection, tableName, c -> ProductTable.createTableIfNotExists(c.getConnection(), tableName));
+
+            connection.getConnection().setAutoCommit(false);
+            Array asinArray = connection.getConnection().createArrayOf("varchar", asins.toArray());
+            PreparedStatement preparedStatement = connection.prepare(ProductTable.getTouchSql(tableName));
+            preparedStatement.setArray(1, asinArray);
+            int rowsTouched = preparedStatement.executeUpdate();
+            if (checkpoint != null) {
+                checkpoint.record(connection, asins);
+            }
+            connection.getConnection().commit();
+            connection.getConnection().setAutoCommit(true);
+            touched.addAndGet(rowsTouched);
+
+            connectionPool.release(connection);
+            connection = null;
+        } catch (SQLException e) {
+            recordFailedRows(asins.size());
+            if (checkpoint != null) {
+                checkpoint.recordFailed(asins.size());
+            }
+            LOGGER.error("Error touching " + asins.size() + " products in table " + tableName + ": " + e.getMessage());
+        } finally {
+            // A connection that is still held here failed and is not reused
+            if (connection != null) {
+                connectionPool.discard(connection);
+            }
+        }
+    }
+
+    // The checkpoint may be null when the run is not checkpointed
+    public void add(ProductRow row, RunCheckpoint checkpoint) {
+        PendingBatch full = null;
+        synchronized (this) {
+            buffer.add(row);
+            if (checkpoint != null) {
+                bufferCheckpoints.computeIfAbsent(checkpoint, c -> new ArrayList<>()).add(row.asin);
+            }
+            if (buffer.size() >= batchSize) {
+                full = takeBuffer();
+            }
+        }
+        if (full != null) {
+            write(full);
+        }
+    }
+
+    public void flush() {
+        PendingBatch batch;
+        synchronized (this) {
+            batch = takeBuffer();
+        }
+        write(batch);
+    }
+
+    // Called once all products of a run have been added
+    public void finish() {
+        flush();
+    }
+
+    @Override
+    public void close() {
+        flushTimer.shutdown();
+        finish();
+        LOGGER.info("Writer for table " + tableName + " closed: " + throughput);
+    }
+
+    private void flushIfDue() {
+        PendingBatch batch = null;
+        synchronized (this) {
+            if (System.currentTimeMillis() - lastFlushAt >= flushIntervalMs) {
+                batch = takeBuffer();
+            }
+        }
+        if (batch != null) {
+            write(batch);
+        }
+    }
+
+    private PendingBatch takeBuffer() {
+        PendingBatch batch = new PendingBatch(buffer, bufferCheckpoints);
+        buffer = new ArrayList<>(batchSize);
+        bufferCheckpoints = new HashMap<>();
+        lastFlushAt = System.currentTimeMillis();
+        return batch;
+    }
+
+    private void write(PendingBatch batch) {
+        List<ProductRow> rows = batch.rows;
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        // Only one batch is written at a time, batches taken concurrently may still commit in any order, each one checkpoints only its own ASINs
+        synchronized (writeLock) {
+            long startedAt = System.nanoTime();
+            try {
+                writeRows(rows, batch.checkpoints);
+                long elapsedNanos = System.nanoTime() - startedAt;
+                throughput.record(rows.size(), elapsedNanos);
+                Metrics.DB_BATCH_SECONDS.observeNanos(elapsedNanos, tableName);
+                Metrics.ROWS_WRITTEN.add(rows.size(), tableName);
+                LOGGER.info("Wrote " + rows.size() + " products for table: " + tableName + " (" + throughput + ")");
+            } catch (SQLException e) {
+                LOGGER.warn("Error writing " + rows.size() + " products into table " + tableName + ", writing them one by one: " + e.getMessage());
+                writeSeparately(batch);
+            }
+        }
+    }
+
+    // Fallback for a failed batch, every row gets its own transaction
+    private void writeSeparately(PendingBatch batch) {
+        Map<String, List<RunCheckpoint>> checkpointsByAsin = new HashMap<>();
+        for (Map.Entry<RunCheckpoint, List<String>> checkpoint : batch.checkpoints.entrySet()) {
+            for (String asin : checkpoint.getValue()) {
+                checkpointsByAsin.computeIfAbsent(asin, a -> new ArrayList<>()).add(checkpoint.getKey());
+            }
+        }
+
+        int written = 0;
+        for (ProductRow row : batch.rows) {
+            Map<RunCheckpoint, List<String>> rowCheckpoints = new HashMap<>();
+            for (RunCheckpoint checkpoint : checkpointsByAsin.getOrDefault(row.asin, Collections.emptyList())) {
+                rowCheckpoints.put(checkpoint, Collections.singletonList(row.asin));
+            }
+            long startedAt = System.nanoTime();
+            try {
+                writeRows(Collections.singletonList(row), rowCheckpoints);
+                long elapsedNanos = System.nanoTime() - startedAt;
+                throughput.record(1, elapsedNanos);
+                Metrics.ROWS_WRITTEN.add(1, tableName);
+                written++;
+            } catch (SQLException e) {
+                recordFailedRows(1);
+                for (RunCheckpoint checkpoint : checkpointsByAsin.getOrDefault(row.asin, Collections.emptyList())) {
+                    checkpoint.recordFailed(1);
+                }
+                LOGGER.error("Error writing product " + row.asin + " into table " + tableName + ": " + e.getMessage());
+            }
+        }
+        LOGGER.info("Wrote " + written + " of " + batch.rows.size() + " products separately for table: " + tableName + " (" + throughput + ")");
+    }
+
+    // Rows that were lost after they were taken from the buffer
+    protected void recordFailedRows(int rowCount) {
+        failed.addAndGet(rowCount);
+        Metrics.ROWS_FAILED.add(rowCount, tableName);
+    }
+
+    // Upsert the rows as one JDBC batch, append their history and checkpoint their ASINs in a single transaction
+    protected void writeRows(List<ProductRow> rows, Map<RunCheckpoint, List<String>> checkpoints) throws SQLException {
+        PooledConnection connection = null;
+        try {
+            connection = connectionPool.acquire();
+            connectionPool.ensureTable(connection, tableName, c -> ProductTable.createTableIfNotExists(c.getConnection(), tableName));
+            Timestamp lastUpdated = new Timestamp(System.currentTimeMillis());
+            if (historyTableName != null) {
+                ProductHistoryTable.ensurePartition(connectionPool, connection, historyTableName, YearMonth.from(lastUpdated.toLocalDateTime()));
+            }
+
+            connection.getConnection().setAutoCommit(false);
+            PreparedStatement preparedStatement = connection.prepare(ProductTable.getUpsertSql(tableName));
+            for (ProductRow row : rows) {
+                ProductTable.bindUpsert(preparedStatement, row, lastUpdated);
+                preparedStatement.addBatch();
+            }
+            preparedStatement.executeBatch();
+            if (historyTableName != null) {
+                PreparedStatement historyStatement = connection.prepare(ProductHistoryTable.getInsertSql(historyTableName));
+                for (ProductRow row : rows) {
+                    ProductHistoryTable.bindInsert(historyStatement, row, lastUpdated);
+                    historyStatement.addBatch();
+                }
+                historyStatement.executeBatch();
+            }
+            for (Map.Entry<RunCheckpoint, List<String>> checkpoint : checkpoints.entrySet()) {
+                checkpoint.getKey().record(connection, checkpoint.getValue());
+            }
+            connection.getConnection().commit();
+            connection.getConnection().setAutoCommit(true);
+
+            connectionPool.release(connection);
+            connection = null;
+        } finally {
+            // A connection that is still held here failed and is not reused
+            if (connection != null) {
+                connectionPool.discard(connection);
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.keepa.api.backend.structs.Request;
+import com.keepa.api.backend.structs.Response;
+
+/**
+ * Sends Keepa requests as fast as the token budget allows.
+ *
+ * Each request first reserves its estimated cost in the shared {@link TokenBucket}
+ * and only blocks when the bucket is empty. The bucket is synced with the token
+ * counts of every response, and requests rejected with NOT_ENOUGH_TOKEN are
+ * sent again from a retry thread once Keepa reports the next refill. Callers
+ * that must not block use {@link #submitAsync(Request, int)}, which waits for
+ * the tokens on a thread of the scheduler.
+ */
+public class RequestScheduler {
+    private static final int MAX_RETRIES = 5;
+    private static final long MIN_RETRY_DELAY_MS = 1000;
+
+    // Token cost per product for the first offer page and every additional one
+    private static final int PRODUCT_TOKEN_COST = 1;
+    private static final int OFFER_PAGE_TOKEN_COST = 6;
+    private static final int OFFERS_PER_PAGE = 10;
+
+    private final KeepaClient client;
+    private final TokenBucket bucket;
+    private final ScheduledExecutorService retryExecutor;
+    private final ExecutorService asyncExecutor;
+
+    public RequestScheduler(KeepaClient client, TokenBucket bucket) {
+        this.client = client;
+        this.bucket = bucket;
+        // Retries wait for tokens on their own thread, never on the common pool or a Keepa callback thread
+        this.retryExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "keepa-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // One thread, so asynchronous requests get their tokens in the order they were submitted
+        this.asyncExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "keepa-async-submit");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public TokenBucket getBucket() {
+        return bucket;
+    }
+
+    // Estimated token cost of a product request for the given number of ASINs
+    public static int estimateProductCost(int asinCount, int offers) {
+        int offerPages = (offers + OFFERS_PER_PAGE - 1) / OFFERS_PER_PAGE;
+        return asinCount * (PRODUCT_TOKEN_COST + offerPages * OFFER_PAGE_TOKEN_COST);
+    }
+
+    public CompletableFuture<Response> submit(Request request, int estimatedCost) {
+        CompletableFuture<Response> resultFuture = new CompletableFuture<>();
+        send(request, estimatedCost, 0, resultFuture);
+        return resultFuture;
+    }
+
+    // Returns right away, the tokens are reserved on the scheduler's own thread
+    public CompletableFuture<Response> submitAsync(Request request, int estimatedCost) {
+        CompletableFuture<Response> resultFuture = new CompletableFuture<>();
+        asyncExecutor.execute(() -> send(request, estimatedCost, 0, resultFuture));
+        return resultFuture;
+    }
+
+    private void send(Request request, int estimatedCost, int attempt, CompletableFuture<Response> resultFuture) {
+        try {
+            bucket.acquire(estimatedCost);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            resultFuture.completeExceptionally(e);
+            return;
+        }
+
+        long sentAt = System.nanoTime();
+        client.send(request).whenComplete((result, error) -> {
+            Metrics.KEEPA_REQUEST_SECONDS.observeNanos(System.nanoTime() - sentAt, request.path);
+            if (error != null) {
+                bucket.update(null, estimatedCost);
+                Metrics.KEEPA_RESPONSES.inc(request.path, "FAILED");
+                resultFuture.completeExceptionally(error);
+                return;
+            }
+            recordResponse(request, result);
+            bucket.update(result, estimatedCost);
+            if (result.status == Response.ResponseStatus.OK) {
+                resultFuture.complete(result);
+            } else if (result.status == Response.ResponseStatus.NOT_ENOUGH_TOKEN && attempt < MAX_RETRIES) {
+                // Nothing is served before the next refill, the retry then only waits on the bucket if other requests took the tokens
+                long delayMs = Math.max(MIN_RETRY_DELAY_MS, result.refillIn);
+                retryExecutor.schedule(() -> send(request, estimatedCost, attempt + 1, resultFuture), delayMs, TimeUnit.MILLISECONDS);
+            } else {
+                resultFuture.completeExceptionally(new RuntimeException("Keepa request failed: " + result));
+            }
+        });
+    }
+
+    private static void recordResponse(Request request, Response result) {
+        Metrics.KEEPA_RESPONSES.inc(request.path, String.valueOf(result.status));
+        Metrics.KEEPA_TOKENS_CONSUMED.add(result.tokensConsumed);
+        // Failed transfers report no token counts
+        if (result.refillRate > 0) {
+            Metrics.KEEPA_TOKENS_LEFT.set(result.tokensLeft);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import com.keepa.api.backend.structs.Response;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Optional debug archive of raw Keepa responses.
+ *
+ * Every response goes to its own gzip file, so concurrent callbacks never write
+ * to the same file. Disabled unless ARCHIVE_RESPONSES=true.
+ */
+public class ResponseArchive {
+    private static final Logger LOGGER = LogManager.getLogger(ResponseArchive.class);
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss_SSS");
+
+    private final boolean enabled;
+    private final File directory;
+    private final AtomicLong sequence = new AtomicLong();
+
+    public ResponseArchive(boolean enabled, String directory) {
+        this.enabled = enabled;
+        this.directory = new File(directory);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void save(String name, Response response) {
+        if (!enabled) {
+            return;
+        }
+        String fileName = name.replaceAll("[^A-Za-z0-9_-]", "_") + "_" + FILE_TIME.format(LocalDateTime.now()) + "_" + sequence.incrementAndGet() + ".json.gz";
+        File file = new File(directory, fileName);
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create directory " + directory);
+            }
+            try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file)), StandardCharsets.UTF_8)) {
+                writer.write(response.toString());
+            }
+            LOGGER.info("Response archived to: " + file.getPath());
+        } catch (IOException e) {
+            LOGGER.error("Error archiving response: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.keepa.api.backend.structs.AmazonLocale;
+
+/**
+ * Durable progress of one job run, so a killed run resumes where it stopped.
+ *
+ * A run of a (locale, node) job is recorded in crawl_runs until it finishes.
+ * The writers add the ASINs they commit to crawl_checkpoints in the same
+ * transaction as the products, so a checkpoint never claims a product that was
+ * not stored. A new run picks up the unfinished run of its job and skips the
+ * ASINs that are already checkpointed. The writers also count the ASINs they
+ * could not store, a run with such failures is left open instead of finished.
+ */
+public class RunCheckpoint {
+    private static final String RUNS_TABLE = "crawl_runs";
+    private static final String CHECKPOINTS_TABLE = "crawl_checkpoints";
+
+    private final ConnectionPool connectionPool;
+    private final String runId;
+    private final Set<String> committedAsins;
+    private final AtomicLong failedAsins = new AtomicLong();
+
+    private RunCheckpoint(ConnectionPool connectionPool, String runId, Set<String> committedAsins) {
+        this.connectionPool = connectionPool;
+        this.runId = runId;
+        this.committedAsins = committedAsins;
+    }
+
+    public String getRunId() {
+        return runId;
+    }
+
+    // ASINs committed by an earlier attempt of this run
+    public Set<String> getCommittedAsins() {
+        return committedAsins;
+    }
+
+    // ASINs of this attempt that were not stored
+    public long getFailedAsins() {
+        return failedAsins.get();
+    }
+
+    public void recordFailed(int asinCount) {
+        failedAsins.addAndGet(asinCount);
+    }
+
+    // Counts the failures of a run that is not checkpointed, nothing is stored
+    public static RunCheckpoint untracked() {
+        return new RunCheckpoint(null, null, Collections.emptySet());
+    }
+
+    // Resume the unfinished run of the job unless it is older than maxAgeMs or a full refresh is forced
+    public static RunCheckpoint start(ConnectionPool connectionPool, AmazonLocale locale, long categoryNodeId, long maxAgeMs, boolean forceFullRefresh) throws SQLException {
+        PooledConnection connection = null;
+        try {
+            connection = connectionPool.acquire();
+            connectionPool.ensureTable(connection, RUNS_TABLE, c -> createTablesIfNotExist(c.getConnection()));
+
+            String runId = null;
+            if (!forceFullRefresh) {
+                PreparedStatement preparedStatement = connection.prepare("SELECT run_id FROM " + RUNS_TABLE + " WHERE locale = ? AND node_id = ? AND finished_at IS NULL AND started_at > ? ORDER BY started_at DESC LIMIT 1");
+                preparedStatement.setString(1, locale.toString());
+                preparedStatement.setLong(2, categoryNodeId);
+                preparedStatement.setTimestamp(3, new Timestamp(System.currentTimeMillis() - maxAgeMs));
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    if (resultSet.next()) {
+                        runId = resultSet.getString(1);
+                    }
+                }
+            }
+
+            Set<String> committedAsins = new HashSet<>();
+            if (runId != null) {
+                PreparedStatement preparedStatement = connection.prepare("SELECT asin FROM " + CHECKPOINTS_TABLE + " WHERE run_id = ?");
+                preparedStatement.setString(1, runId);
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        committedAsins.add(resultSet.getString(1));
+                    }
+                }
+            } else {
+                // Runs of the job that are not resumed are abandoned
+                connection.getConnection().setAutoCommit(false);
+                PreparedStatement abandon = connection.prepare("UPDATE " + RUNS_TABLE + " SET finished_at = NOW() WHERE locale = ? AND node_id = ? AND finished_at IS NULL");
+                abandon.setString(1, locale.toString());
+                abandon.setLong(2, categoryNodeId);
+                abandon.executeUpdate();
+                connection.prepare("DELETE FROM " + CHECKPOINTS_TABLE + " c USING " + RUNS_TABLE + " r WHERE c.run_id = r.run_id AND r.finished_at IS NOT NULL").executeUpdate();
+
+                runId = UUID.randomUUID().toString();
+                PreparedStatement insert = connection.prepare("INSERT INTO " + RUNS_TABLE + " (run_id, locale, node_id, started_at) VALUES (?, ?, ?, NOW())");
+                insert.setString(1, runId);
+                insert.setString(2, locale.toString());
+                insert.setLong(3, categoryNodeId);
+                insert.executeUpdate();
+                connection.getConnection().commit();
+                connection.getConnection().setAutoCommit(true);
+            }
+
+            connectionPool.release(connection);
+            connection = null;
+            return new RunCheckpoint(connectionPool, runId, committedAsins);
+        } finally {
+            // A connection that is still held here failed and is not reused
+            if (connection != null) {
+                connectionPool.discard(connection);
+            }
+        }
+    }
+
+    // Called by the writers inside the transaction that stores the products
+    public void record(PooledConnection connection, Collection<String> asins) throws SQLException {
+        if (asins.isEmpty() || runId == null) {
+            return;
+        }
+        PreparedStatement preparedStatement = connection.prepare("INSERT INTO " + CHECKPOINTS_TABLE + " (run_id, asin, committed_at) VALUES (?, ?, NOW()) ON CONFLICT (run_id, asin) DO NOTHING");
+        for (String asin : asins) {
+            preparedStatement.setString(1, runId);
+            preparedStatement.setString(2, asin);
+            preparedStatement.addBatch();
+        }
+        preparedStatement.executeBatch();
+    }
+
+    // A finished run is not resumed, its checkpoints are no longer needed
+    public void finish() throws SQLException {
+        if (runId == null) {
+            return;
+        }
+        PooledConnection connection = null;
+        try {
+            connection = connectionPool.acquire();
+            connection.getConnection().setAutoCommit(false);
+            PreparedStatement finishRun = connection.prepare("UPDATE " + RUNS_TABLE + " SET finished_at = NOW() WHERE run_id = ?");
+            finishRun.setString(1, runId);
+            finishRun.executeUpdate();
+            PreparedStatement deleteCheckpoints = connection.prepare("DELETE FROM " + CHECKPOINTS_TABLE + " WHERE run_id = ?");
+            deleteCheckpoints.setString(1, runId);
+            deleteCheckpoints.executeUpdate();
+            connection.getConnection().commit();
+            connection.getConnection().setAutoCommit(true);
+
+            connectionPool.release(connection);
+            connection = null;
+        } finally {
+            // A connection that is still held here failed and is not reused
+            if (connection != null) {
+                connectionPool.discard(connection);
+            }
+        }
+    }
+
+    private static void createTablesIfNotExist(Connection connection) throws SQLException {
+        String createRunsSQL = "CREATE TABLE IF NOT EXISTS " + RUNS_TABLE + " ("
+            + "run_id TEXT PRIMARY KEY, "
+            + "locale TEXT NOT NULL, "
+            + "node_id BIGINT NOT NULL, "
+            + "started_at TIMESTAMP NOT NULL, "
+            + "finished_at TIMESTAMP"
+            + ");";
+        String createCheckpointsSQL = "CREATE TABLE IF NOT EXISTS " + CHECKPOINTS_TABLE + " ("
+            + "run_id TEXT NOT NULL, "
+            + "asin TEXT NOT NULL, "
+            + "committed_at TIMESTAMP NOT NULL, "
+            + "PRIMARY KEY (run_id, asin)"
+            + ");";
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(createRunsSQL)) {
+            preparedStatement.execute();
+        }
+        try (PreparedStatement preparedStatement = connection.prepareStatement(createCheckpointsSQL)) {
+            preparedStatement.execute();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return runId != null ? runId : "untracked";
+    }
+}
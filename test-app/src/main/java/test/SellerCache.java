@@ -0,0 +1,236 @@
+package test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.keepa.api.backend.structs.AmazonLocale;
+import com.keepa.api.backend.structs.Request;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Bounded cache of seller names keyed by locale and seller ID.
+ *
+ * Entries expire after the configured TTL and the least recently used entry is
+ * evicted when the cache is full. Concurrent lookups of the same seller share
+ * one in-flight request, and misses are collected for a short time so that up
+ * to 100 sellers are looked up with a single seller request. Seller requests
+ * wait for their tokens in the {@link RequestScheduler}, never on the thread
+ * that dispatches them.
+ */
+public class SellerCache {
+    private static final Logger LOGGER = LogManager.getLogger(SellerCache.class);
+    private static final String UNKNOWN_SELLER = "N/A";
+    private static final int MAX_SELLERS_PER_REQUEST = 100;
+    private static final long LINGER_MS = 50;
+    private static final int SELLER_TOKEN_COST = 1;
+
+    private static class Entry {
+        final String sellerName;
+        final long expiresAt;
+
+        Entry(String sellerName, long expiresAt) {
+            this.sellerName = sellerName;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final RequestScheduler scheduler;
+    private final long ttlMs;
+    private final Map<String, Entry> entries;
+    private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+    private final Map<AmazonLocale, List<String>> pending = new LinkedHashMap<>();
+    private final ScheduledExecutorService dispatcher;
+    private volatile SellerDirectory directory;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+
+    public SellerCache(RequestScheduler scheduler, int maxSize, long ttlMs) {
+        this.scheduler = scheduler;
+        this.ttlMs = ttlMs;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+        this.dispatcher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "seller-cache-dispatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public CompletableFuture<String> getSellerName(AmazonLocale locale, String sellerId) {
+        // If no seller ID is provided, return "N/A" immediately
+        if (sellerId == null || sellerId.isEmpty()) {
+            return CompletableFuture.completedFuture(UNKNOWN_SELLER);
+        }
+
+        String key = key(locale, sellerId);
+        String cached = lookup(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            Metrics.SELLER_CACHE_LOOKUPS.inc("hit");
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        CompletableFuture<String> created = new CompletableFuture<>();
+        CompletableFuture<String> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            Metrics.SELLER_CACHE_LOOKUPS.inc("coalesced");
+            return existing;
+        }
+        // A lookup that finished since the cache was checked is cached before it leaves inFlight
+        cached = lookup(key);
+        if (cached != null) {
+            inFlight.remove(key, created);
+            created.complete(cached);
+            hits.incrementAndGet();
+            Metrics.SELLER_CACHE_LOOKUPS.inc("hit");
+            return created;
+        }
+        misses.incrementAndGet();
+        Metrics.SELLER_CACHE_LOOKUPS.inc("miss");
+        enqueue(locale, sellerId);
+        return created;
+    }
+
+    // Start the lookups of a whole product batch at once so they share requests
+    public void prefetch(AmazonLocale locale, Collection<String> sellerIds) {
+        for (String sellerId : sellerIds) {
+            getSellerName(locale, sellerId);
+        }
+    }
+
+    // Persist fetched seller names so later runs start warm
+    public void setDirectory(SellerDirectory directory) {
+        this.directory = directory;
+    }
+
+    public void put(AmazonLocale locale, String sellerId, String sellerName) {
+        put(locale, sellerId, sellerName, System.currentTimeMillis() + ttlMs);
+    }
+
+    public void put(AmazonLocale locale, String sellerId, String sellerName, long expiresAt) {
+        synchronized (entries) {
+            entries.put(key(locale, sellerId), new Entry(sellerName, expiresAt));
+        }
+    }
+
+    public String getStatistics() {
+        long lookups = hits.get() + misses.get() + coalesced.get();
+        double hitRate = lookups > 0 ? 100.0 * (hits.get() + coalesced.get()) / lookups : 0;
+        return String.format("%d lookups, %d hits, %d coalesced, %d misses (%.1f%% hit rate), %d seller requests",
+            lookups, hits.get(), coalesced.get(), misses.get(), hitRate, requests.get());
+    }
+
+    private String lookup(String key) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (System.currentTimeMillis() > entry.expiresAt) {
+                entries.remove(key);
+                return null;
+            }
+            return entry.sellerName;
+        }
+    }
+
+    private void enqueue(AmazonLocale locale, String sellerId) {
+        List<String> full = null;
+        synchronized (pending) {
+            List<String> sellerIds = pending.get(locale);
+            if (sellerIds == null) {
+                sellerIds = new ArrayList<>();
+                pending.put(locale, sellerIds);
+                // First miss for this locale, send whatever was collected after the linger time
+                dispatcher.schedule(() -> dispatch(locale), LINGER_MS, TimeUnit.MILLISECONDS);
+            }
+            sellerIds.add(sellerId);
+            if (sellerIds.size() >= MAX_SELLERS_PER_REQUEST) {
+                full = pending.remove(locale);
+            }
+        }
+        if (full != null) {
+            send(locale, full);
+        }
+    }
+
+    private void dispatch(AmazonLocale locale) {
+        List<String> sellerIds;
+        synchronized (pending) {
+            sellerIds = pending.remove(locale);
+        }
+        if (sellerIds != null && !sellerIds.isEmpty()) {
+            send(locale, sellerIds);
+        }
+    }
+
+    private void send(AmazonLocale locale, List<String> sellerIds) {
+        requests.incrementAndGet();
+        Request sellerInfoRequest = Request.getSellerRequest(locale, String.join(",", sellerIds));
+
+        // The dispatcher serves every locale, it must not wait for tokens
+        scheduler.submitAsync(sellerInfoRequest, sellerIds.size() * SELLER_TOKEN_COST)
+            .thenAccept(sellerResult -> {
+                Map<String, String> sellerNames;
+                try {
+                    sellerNames = KeepaResponseParser.parseSellerNames(sellerResult);
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.error("Error parsing seller info: " + e.getMessage());
+                    fail(locale, sellerIds);
+                    return;
+                }
+                for (String sellerId : sellerIds) {
+                    String sellerName = sellerNames.getOrDefault(sellerId, UNKNOWN_SELLER);
+                    put(locale, sellerId, sellerName);
+                    complete(locale, sellerId, sellerName);
+                }
+                SellerDirectory sellerDirectory = directory;
+                if (sellerDirectory != null) {
+                    sellerDirectory.store(locale, sellerNames);
+                }
+            })
+            .exceptionally(failure -> {
+                LOGGER.error("Error fetching seller info: " + failure);
+                fail(locale, sellerIds);
+                return null;
+            });
+    }
+
+    // Failed lookups are not cached, the next lookup tries again
+    private void fail(AmazonLocale locale, List<String> sellerIds) {
+        for (String sellerId : sellerIds) {
+            complete(locale, sellerId, UNKNOWN_SELLER);
+        }
+    }
+
+    private void complete(AmazonLocale locale, String sellerId, String sellerName) {
+        CompletableFuture<String> future = inFlight.remove(key(locale, sellerId));
+        if (future != null) {
+            future.complete(sellerName);
+        }
+    }
+
+    private static String key(AmazonLocale locale, String sellerId) {
+        return locale + ":" + sellerId;
+    }
+}
@@ -0,0 +1,116 @@
+package test;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Map;
+
+import com.keepa.api.backend.structs.AmazonLocale;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Persistent sellerId to sellerName mapping in the sellers_&lt;locale&gt; tables.
+ *
+ * The directory is loaded into the {@link SellerCache} at startup, so a new run
+ * only pays for sellers it has not seen within the refresh age. Names fetched
+ * from Keepa are written back as they arrive.
+ */
+public class SellerDirectory {
+    private static final Logger LOGGER = LogManager.getLogger(SellerDirectory.class);
+
+    private final ConnectionPool connectionPool;
+    private final long refreshAgeMs;
+
+    public SellerDirectory(ConnectionPool connectionPool, long refreshAgeMs) {
+        this.connectionPool = connectionPool;
+        this.refreshAgeMs = refreshAgeMs;
+    }
+
+    public static String getTableName(AmazonLocale locale) {
+        return "sellers_" + locale.toString().toLowerCase();
+    }
+
+    // Load the sellers fetched within the refresh age, they expire when they reach it
+    public void loadInto(SellerCache sellerCache, AmazonLocale locale) {
+        String tableName = getTableName(locale);
+        PooledConnection connection = null;
+        try {
+            connection = connectionPool.acquire();
+            connectionPool.ensureTable(connection, tableName, c -> createTableIfNotExists(c, tableName));
+
+            PreparedStatement preparedStatement = connection.prepare("SELECT seller_id, seller_name, fetched_at FROM " + tableName + " WHERE fetched_at > ?");
+            preparedStatement.setTimestamp(1, new Timestamp(System.currentTimeMillis() - refreshAgeMs));
+            int loaded = 0;
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    long expiresAt = resultSet.getTimestamp(3).getTime() + refreshAgeMs;
+                    sellerCache.put(locale, resultSet.getString(1), resultSet.getString(2), expiresAt);
+                    loaded++;
+                }
+            }
+
+            connectionPool.release(connection);
+            connection = null;
+            LOGGER.info("Loaded " + loaded + " sellers from table: " + tableName);
+        } catch (SQLException e) {
+            LOGGER.error("Error loading sellers from database: " + e.getMessage());
+        } finally {
+            // A connection that is still held here failed and is not reused
+            if (connection != null) {
+                connectionPool.discard(connection);
+            }
+        }
+    }
+
+    public void store(AmazonLocale locale, Map<String, String> sellerNames) {
+        if (sellerNames.isEmpty()) {
+            return;
+        }
+
+        String tableName = getTableName(locale);
+        PooledConnection connection = null;
+        try {
+            connection = connectionPool.acquire();
+            connectionPool.ensureTable(connection, tableName, c -> createTableIfNotExists(c, tableName));
+
+            connection.getConnection().setAutoCommit(false);
+            PreparedStatement preparedStatement = connection.prepare("INSERT INTO " + tableName + " (seller_id, seller_name, fetched_at) VALUES (?, ?, ?) "
+                + "ON CONFLICT (seller_id) DO UPDATE SET seller_name = EXCLUDED.seller_name, fetched_at = EXCLUDED.fetched_at");
+            Timestamp fetchedAt = new Timestamp(System.currentTimeMillis());
+            for (Map.Entry<String, String> seller : sellerNames.entrySet()) {
+                preparedStatement.setString(1, seller.getKey());
+                preparedStatement.setString(2, seller.getValue());
+                preparedStatement.setTimestamp(3, fetchedAt);
+                preparedStatement.addBatch();
+            }
+            preparedStatement.executeBatch();
+            connection.getConnection().commit();
+            connection.getConnection().setAutoCommit(true);
+
+            connectionPool.release(connection);
+            connection = null;
+        } catch (SQLException e) {
+            LOGGER.error("Error storing sellers into table " + tableName + ": " + e.getMessage());
+        } finally {
+            // A connection that is still held here failed and is not reused
+            if (connection != null) {
+                connectionPool.discard(connection);
+            }
+        }
+    }
+
+    private static void createTableIfNotExists(PooledConnection connection, String tableName) throws SQLException {
+        String createTableSQL = "CREATE TABLE IF NOT EXISTS " + tableName + " ("
+            + "seller_id VARCHAR(32) PRIMARY KEY, "
+            + "seller_name TEXT, "
+            + "fetched_at TIMESTAMP"
+            + ");";
+
+        try (PreparedStatement preparedStatement = connection.getConnection().prepareStatement(createTableSQL)) {
+            preparedStatement.execute();
+        }
+    }
+}
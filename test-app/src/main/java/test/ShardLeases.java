@@ -0,0 +1,393 @@
+package test;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.keepa.api.backend.structs.AmazonLocale;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Leases on the shards of a sharded category crawl, shared by all workers through Postgres.
+ *
+ * The ASIN space of a (locale, node) crawl is stored in crawl_asins, each ASIN
+ * assigned to a shard by the hash of the ASIN. crawl_shards holds one lease row
+ * per shard plus the discovery row -1, whose generation counts how often the
+ * ASIN space was collected. A shard is due while its completed generation is
+ * behind the discovery, and is claimed with FOR UPDATE SKIP LOCKED so two
+ * workers never get the same shard. Held leases are renewed in the background,
+ * the lease of a worker that died expires and the shard is claimed again.
+ */
+public class ShardLeases implements AutoCloseable {
+    private static final Logger LOGGER = LogManager.getLogger(ShardLeases.class);
+    private static final String SHARDS_TABLE = "crawl_shards";
+    private static final String ASINS_TABLE = "crawl_asins";
+
+    // The lease row of the ASIN space collection
+    public static final int DISCOVERY_SHARD = -1;
+
+    private final ConnectionPool connectionPool;
+    private final String workerId;
+    private final long leaseMs;
+    private final Map<String, Integer> heldLeases = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService renewer;
+
+    public ShardLeases(ConnectionPool connectionPool, String workerId, long leaseMs) {
+        this.connectionPool = connectionPool;
+        this.workerId = workerId;
+        this.leaseMs = leaseMs;
+        this.renewer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "shard-lease-renewer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long renewIntervalMs = Math.max(1000, leaseMs / 3);
+        renewer.scheduleWithFixedDelay(this::renewHeldLeases, renewIntervalMs, renewIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Host name and process ID, unique per worker JVM
+    public static String defaultWorkerId() {
+        return ManagementFactory.getRuntimeMXBean().getName();
+    }
+
+    public String getWorkerId() {
+        return workerId;
+    }
+
+    public static int shardOf(String asin, int shardCount) {
+        // String.hashCode is specified by the JLS, so every worker assigns the same shard
+        return Math.floorMod(asin.hashCode(), shardCount);
+    }
+
+    // Claim the discovery when its last completion is older than refreshMs or it never completed
+    public boolean claimDiscovery(AmazonLocale locale, long nodeId, long refreshMs) throws SQLException {
+        PooledConnection connection = null;
+        try {
+            connection = connectionPool.acquire();
+            ensureTables(connection);
+
+            PreparedStatement insert = connection.prepare("INSERT INTO " + SHARDS_TABLE + " (locale, node_id, shard, generation) VALUES (?, ?, ?, 0) ON CONFLICT DO NOTHING");
+            insert.setString(1, locale.toString());
+            insert.setLong(2, nodeId);
+            insert.setInt(3, DISCOVERY_SHARD);
+            insert.executeUpdate();
+
+            PreparedStatement claim = connection.prepare("UPDATE " + SHARDS_TABLE + " SET worker_id = ?, leased_until = NOW() + ? * INTERVAL '1 millisecond'"
+                + " WHERE locale = ? AND node_id = ? AND shard = ?"
+                + " AND (completed_at IS NULL OR completed_at < NOW() - ? * INTERVAL '1 millisecond')"
+                + " AND (leased_until IS NULL OR leased_until < NOW())");
+            claim.setString(1, workerId);
+            claim.setLong(2, leaseMs);
+            claim.setString(3, locale.toString());
+            claim.setLong(4, nodeId);
+            claim.setInt(5, DISCOVERY_SHARD);
+            claim.setLong(6, refreshMs);
+            boolean claimed = claim.executeUpdate() == 1;
+
+            connectionPool.release(connection);
+            connection = null;
+            if (claimed) {
+                heldLeases.put(leaseKey(locale, nodeId, DISCOVERY_SHARD), DISCOVERY_SHARD);
+            }
+            return claimed;
+        } finally {
+            // A connection that is still held here failed and is not reused
+            if (connection != null) {
+                connectionPool.discard(connection);
+            }
+        }
+    }
+
+    // Replace the ASIN space and start a new generation, all shards become due again
+    public void completeDiscovery(AmazonLocale locale, long nodeId, List<String> asins, int shardCount) throws SQLException {
+        PooledConnection connection = null;
+        try {
+            connection = connectionPool.acquire();
+            ensureTables(connection);
+            connection.getConnection().setAutoCommit(false);
+
+            PreparedStatement delete = connection.prepare("DELETE FROM " + ASINS_TABLE + " WHERE locale = ? AND node_id = ?");
+            delete.setString(1, locale.toString());
+            delete.setLong(2, nodeId);
+            delete.executeUpdate();
+
+            PreparedStatement insertAsin = connection.prepare("INSERT INTO " + ASINS_TABLE + " (locale, node_id, asin, shard, position) VALUES (?, ?, ?, ?, ?)");
+            for (int position = 0; position < asins.size(); position++) {
+                String asin = asins.get(position);
+                insertAsin.setString(1, locale.toString());
+                insertAsin.setLong(2, nodeId);
+                insertAsin.setString(3, asin);
+                insertAsin.setInt(4, shardOf(asin, shardCount));
+                insertAsin.setInt(5, position);
+                insertAsin.addBatch();
+            }
+            insertAsin.executeBatch();
+
+            // Shards left over from a larger shard count no longer have ASINs
+            PreparedStatement deleteShards = connection.prepare("DELETE FROM " + SHARDS_TABLE + " WHERE locale = ? AND node_id = ? AND shard >= ?");
+            deleteShards.setString(1, locale.toString());
+            deleteShards.setLong(2, nodeId);
+            deleteShards.setInt(3, shardCount);
+            deleteShards.executeUpdate();
+
+            PreparedStatement insertShard = connection.prepare("INSERT INTO " + SHARDS_TABLE + " (locale, node_id, shard, generation) VALUES (?, ?, ?, 0) ON CONFLICT DO NOTHING");
+            for (int shard = 0; shard < shardCount; shard++) {
+                insertShard.setString(1, locale.toString());
+                insertShard.setLong(2, nodeId);
+                insertShard.setInt(3, shard);
+                insertShard.addBatch();
+            }
+            insertShard.executeBatch();
+
+            PreparedStatement complete = connection.prepare("UPDATE " + SHARDS_TABLE + " SET generation = generation + 1, completed_at = NOW(), worker_id = NULL, leased_until = NULL"
+                + " WHERE locale = ? AND node_id = ? AND shard = ? AND worker_id = ?");
+            complete.setString(1, locale.toString());
+            complete.setLong(2, nodeId);
+            complete.setInt(3, DISCOVERY_SHARD);
+            complete.setString(4, workerId);
+            if (complete.executeUpdate() == 0) {
+                // The lease expired and another worker took over the discovery, its ASIN space wins
+                connection.getConnection().rollback();
+                connection.getConnection().setAutoCommit(true);
+                heldLeases.remove(leaseKey(locale, nodeId, DISCOVERY_SHARD));
+                connectionPool.release(connection);
+                connection = null;
+                throw new SQLException("Discovery lease of " + locale + " " + nodeId + " was lost before the ASIN space was stored");
+            }
+
+            connection.getConnection().commit();
+            connection.getConnection().setAutoCommit(true);
+            heldLeases.remove(leaseKey(locale, nodeId, DISCOVERY_SHARD));
+
+            connectionPool.release(connection);
+            connection = null;
+        } finally {
+            // A connection that is still held here failed and is not reused
+            if (connection != null) {
+                connectionPool.discard(connection);
+            }
+        }
+    }
+
+    // The current generation of the ASIN space, 0 while it was never collected
+    public int getGeneration(AmazonLocale locale, long nodeId) throws SQLException {
+        PooledConnection connection = null;
+        try {
+            connection = connectionPool.acquire();
+            ensureTables(connection);
+            PreparedStatement preparedStatement = connection.prepare("SELECT generation FROM " + SHARDS_TABLE + " WHERE locale = ? AND node_id = ? AND shard = ?");
+            preparedStatement.setString(1, locale.toString());
+            preparedStatement.setLong(2, nodeId);
+            preparedStatement.setInt(3, DISCOVERY_SHARD);
+            int generation = 0;
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                if (resultSet.next()) {
+                    generation = resultSet.getInt(1);
+                }
+            }
+
+            connectionPool.release(connection);
+            connection = null;
+            return generation;
+        } finally {
+            // A connection that is still held here failed and is not reused
+            if (connection != null) {
+                connectionPool.discard(connection);
+            }
+        }
+    }
+
+    // Claim a due shard of the generation that no other worker holds, null when none is left
+    public Integer claimNextShard(AmazonLocale locale, long nodeId, int generation) throws SQLException {
+        PooledConnection connection = null;
+        try {
+            connection = connectionPool.acquire();
+            ensureTables(connection);
+            PreparedStatement claim = connection.prepare("UPDATE " + SHARDS_TABLE + " SET worker_id = ?, leased_until = NOW() + ? * INTERVAL '1 millisecond'"
+                + " WHERE (locale, node_id, shard) IN (SELECT locale, node_id, shard FROM " + SHARDS_TABLE
+                + " WHERE locale = ? AND node_id = ? AND shard >= 0 AND generation < ? AND (leased_until IS NULL OR leased_until < NOW())"
+                + " ORDER BY shard LIMIT 1 FOR UPDATE SKIP LOCKED)"
+                + " RETURNING shard");
+            claim.setString(1, workerId);
+            claim.setLong(2, leaseMs);
+            claim.setString(3, locale.toString());
+            claim.setLong(4, nodeId);
+            claim.setInt(5, generation);
+            Integer shard = null;
+            try (ResultSet resultSet = claim.executeQuery()) {
+                if (resultSet.next()) {
+                    shard = resultSet.getInt(1);
+                }
+            }
+
+            connectionPool.release(connection);
+            connection = null;
+            if (shard != null) {
+                heldLeases.put(leaseKey(locale, nodeId, shard), shard);
+            }
+            return shard;
+        } finally {
+            // A connection that is still held here failed and is not reused
+            if (connection != null) {
+                connectionPool.discard(connection);
+            }
+        }
+    }
+
+    // The ASINs of a shard in the order they were listed
+    public List<String> loadShardAsins(AmazonLocale locale, long nodeId, int shard) throws SQLException {
+        List<String> asins = new ArrayList<>();
+        PooledConnection connection = null;
+        try {
+            connection = connectionPool.acquire();
+            ensureTables(connection);
+            PreparedStatement preparedStatement = connection.prepare("SELECT asin FROM " + ASINS_TABLE + " WHERE locale = ? AND node_id = ? AND shard = ? ORDER BY position");
+            preparedStatement.setString(1, locale.toString());
+            preparedStatement.setLong(2, nodeId);
+            preparedStatement.setInt(3, shard);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    asins.add(resultSet.getString(1));
+                }
+            }
+
+            connectionPool.release(connection);
+            connection = null;
+            return asins;
+        } finally {
+            // A connection that is still held here failed and is not reused
+            if (connection != null) {
+                connectionPool.discard(connection);
+            }
+        }
+    }
+
+    // Mark the shard done for the generation it was claimed in and give up the lease
+    public void completeShard(AmazonLocale locale, long nodeId, int shard, int generation) throws SQLException {
+        updateLease(locale, nodeId, shard, "generation = ?, completed_at = NOW(), worker_id = NULL, leased_until = NULL", generation);
+    }
+
+    // Give up a lease without completing it, another worker can claim it right away
+    public void release(AmazonLocale locale, long nodeId, int shard) throws SQLException {
+        updateLease(locale, nodeId, shard, "worker_id = NULL, leased_until = NULL", null);
+    }
+
+    // A generation is bound as the first parameter of the assignments
+    private void updateLease(AmazonLocale locale, long nodeId, int shard, String assignments, Integer generation) throws SQLException {
+        heldLeases.remove(leaseKey(locale, nodeId, shard));
+        PooledConnection connection = null;
+        try {
+            connection = connectionPool.acquire();
+            ensureTables(connection);
+            PreparedStatement preparedStatement = connection.prepare("UPDATE " + SHARDS_TABLE + " SET " + assignments + " WHERE locale = ? AND node_id = ? AND shard = ? AND worker_id = ?");
+            int index = 1;
+            if (generation != null) {
+                preparedStatement.setInt(index++, generation);
+            }
+            preparedStatement.setString(index++, locale.toString());
+            preparedStatement.setLong(index++, nodeId);
+            preparedStatement.setInt(index++, shard);
+            preparedStatement.setString(index, workerId);
+            if (preparedStatement.executeUpdate() == 0) {
+                LOGGER.warn("Lease on shard " + shard + " of " + locale + " " + nodeId + " was lost before it was given up");
+            }
+
+            connectionPool.release(connection);
+            connection = null;
+        } finally {
+            // A connection that is still held here failed and is not reused
+            if (connection != null) {
+                connectionPool.discard(connection);
+            }
+        }
+    }
+
+    private void renewHeldLeases() {
+        if (heldLeases.isEmpty()) {
+            return;
+        }
+        PooledConnection connection = null;
+        try {
+            connection = connectionPool.acquire();
+            PreparedStatement preparedStatement = connection.prepare("UPDATE " + SHARDS_TABLE + " SET leased_until = NOW() + ? * INTERVAL '1 millisecond'"
+                + " WHERE locale = ? AND node_id = ? AND shard = ? AND worker_id = ?");
+            for (Map.Entry<String, Integer> lease : heldLeases.entrySet()) {
+                String[] key = lease.getKey().split(":");
+                preparedStatement.setLong(1, leaseMs);
+                preparedStatement.setString(2, key[0]);
+                preparedStatement.setLong(3, Long.parseLong(key[1]));
+                preparedStatement.setInt(4, lease.getValue());
+                preparedStatement.setString(5, workerId);
+                preparedStatement.addBatch();
+            }
+            preparedStatement.executeBatch();
+
+            connectionPool.release(connection);
+            connection = null;
+        } catch (SQLException e) {
+            LOGGER.error("Error renewing shard leases: " + e.getMessage());
+        } finally {
+            // A connection that is still held here failed and is not reused
+            if (connection != null) {
+                connectionPool.discard(connection);
+            }
+        }
+    }
+
+    // Every entry point creates the tables, a worker may start with any of them
+    private void ensureTables(PooledConnection connection) throws SQLException {
+        connectionPool.ensureTable(connection, SHARDS_TABLE, c -> createTablesIfNotExist(c.getConnection()));
+    }
+
+    private static String leaseKey(AmazonLocale locale, long nodeId, int shard) {
+        return locale + ":" + nodeId + ":" + shard;
+    }
+
+    private static void createTablesIfNotExist(Connection connection) throws SQLException {
+        String createShardsSQL = "CREATE TABLE IF NOT EXISTS " + SHARDS_TABLE + " ("
+            + "locale TEXT NOT NULL, "
+            + "node_id BIGINT NOT NULL, "
+            + "shard INT NOT NULL, "
+            + "generation INT NOT NULL DEFAULT 0, "
+            + "worker_id TEXT, "
+            + "leased_until TIMESTAMP, "
+            + "completed_at TIMESTAMP, "
+            + "PRIMARY KEY (locale, node_id, shard)"
+            + ");";
+        String createAsinsSQL = "CREATE TABLE IF NOT EXISTS " + ASINS_TABLE + " ("
+            + "locale TEXT NOT NULL, "
+            + "node_id BIGINT NOT NULL, "
+            + "asin TEXT NOT NULL, "
+            + "shard INT NOT NULL, "
+            + "position INT NOT NULL, "
+            + "PRIMARY KEY (locale, node_id, asin)"
+            + ");";
+        String createIndexSQL = "CREATE INDEX IF NOT EXISTS " + ASINS_TABLE + "_shard_idx ON " + ASINS_TABLE + " (locale, node_id, shard, position)";
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(createShardsSQL)) {
+            preparedStatement.execute();
+        }
+        try (PreparedStatement preparedStatement = connection.prepareStatement(createAsinsSQL)) {
+            preparedStatement.execute();
+        }
+        try (PreparedStatement preparedStatement = connection.prepareStatement(createIndexSQL)) {
+            preparedStatement.execute();
+        }
+    }
+
+    @Override
+    public void close() {
+        renewer.shutdown();
+    }
+}
@@ -0,0 +1,54 @@
+package test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts written rows and the time spent writing them.
+ *
+ * Reports both the rate over the time spent in the database and the rate over
+ * the wall-clock time since the first write, so runs can be compared.
+ */
+public class ThroughputCounter {
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong writeNanos = new AtomicLong();
+    private final AtomicLong firstWriteAt = new AtomicLong();
+
+    public void record(int rowCount, long elapsedNanos) {
+        firstWriteAt.compareAndSet(0, System.nanoTime() - elapsedNanos);
+        rows.addAndGet(rowCount);
+        batches.incrementAndGet();
+        writeNanos.addAndGet(elapsedNanos);
+    }
+
+    public long getRows() {
+        return rows.get();
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    public long getWriteNanos() {
+        return writeNanos.get();
+    }
+
+    // Rows per second while the database was busy writing
+    public double getWriteRowsPerSecond() {
+        long nanos = writeNanos.get();
+        return nanos > 0 ? rows.get() * 1e9 / nanos : 0;
+    }
+
+    // Rows per second since the first write
+    public double getWallRowsPerSecond() {
+        long start = firstWriteAt.get();
+        long nanos = start > 0 ? System.nanoTime() - start : 0;
+        return nanos > 0 ? rows.get() * 1e9 / nanos : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d rows in %d batches, %.1f rows/sec (write), %.1f rows/sec (wall)",
+            getRows(), getBatches(), getWriteRowsPerSecond(), getWallRowsPerSecond());
+    }
+}
@@ -0,0 +1,100 @@
+package test;
+
+import com.keepa.api.backend.structs.Response;
+
+/**
+ * Local view of the Keepa token bucket.
+ *
+ * Every Keepa response reports how many tokens are left, how many are refilled
+ * per minute and when the next refill happens. Between responses the bucket is
+ * estimated by subtracting the expected cost of requests that were sent and
+ * adding the refills that happened since the last response. The costs reserved
+ * by requests still in flight are kept apart, a response only reports what
+ * Keepa charged so far and they are subtracted from its balance again.
+ */
+public class TokenBucket {
+    private static final long REFILL_INTERVAL_MS = 60000;
+
+    private boolean known = false;
+    private boolean probing = false;
+    private int tokensLeft;
+    private int reserved;
+    private int refillRate;
+    private long nextRefillAt;
+
+    // Sync the local estimate with the values reported by Keepa, reservedCost is what the request reserved in acquire
+    public synchronized void update(Response response, int reservedCost) {
+        probing = false;
+        reserved = Math.max(0, reserved - reservedCost);
+        if (response == null || response.refillRate <= 0) {
+            // Failed transfers carry no token information
+            notifyAll();
+            return;
+        }
+        long now = System.currentTimeMillis();
+        tokensLeft = response.tokensLeft - reserved;
+        refillRate = response.refillRate;
+        nextRefillAt = now + Math.max(0, response.refillIn);
+        known = true;
+        notifyAll();
+    }
+
+    // Block until the bucket has tokens left, then reserve the estimated cost
+    public synchronized void acquire(int estimatedCost) throws InterruptedException {
+        while (true) {
+            applyRefills(System.currentTimeMillis());
+            if (!known) {
+                // Nothing known about the bucket yet, let a single request
+                // through and wait for its response to report the balance
+                if (!probing) {
+                    probing = true;
+                    reserved += estimatedCost;
+                    return;
+                }
+                wait(1000);
+                continue;
+            }
+            if (tokensLeft > 0) {
+                // Keepa accepts a request as long as the balance is positive,
+                // so only an empty bucket needs to wait
+                tokensLeft -= estimatedCost;
+                reserved += estimatedCost;
+                return;
+            }
+            long waitMs = millisUntilPositive(System.currentTimeMillis());
+            wait(Math.max(1, waitMs));
+        }
+    }
+
+    public synchronized int getTokensLeft() {
+        applyRefills(System.currentTimeMillis());
+        return tokensLeft;
+    }
+
+    // Estimated cost of the requests sent but not answered yet
+    public synchronized int getReserved() {
+        return reserved;
+    }
+
+    public synchronized int getRefillRate() {
+        return refillRate;
+    }
+
+    private void applyRefills(long now) {
+        if (!known || refillRate <= 0 || now < nextRefillAt) {
+            return;
+        }
+        long refills = 1 + (now - nextRefillAt) / REFILL_INTERVAL_MS;
+        tokensLeft += (int) (refills * refillRate);
+        nextRefillAt += refills * REFILL_INTERVAL_MS;
+    }
+
+    private long millisUntilPositive(long now) {
+        if (refillRate <= 0) {
+            // No refill information yet, poll again shortly
+            return 1000;
+        }
+        long refillsNeeded = (-tokensLeft / refillRate) + 1;
+        return Math.max(0, nextRefillAt - now) + (refillsNeeded - 1) * REFILL_INTERVAL_MS;
+    }
+}
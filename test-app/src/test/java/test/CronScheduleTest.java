@@ -0,0 +1,79 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+import org.junit.Test;
+
+public class CronScheduleTest {
+    private static ZonedDateTime at(String time) {
+        return ZonedDateTime.of(LocalDateTime.parse(time), ZoneOffset.UTC);
+    }
+
+    private static ZonedDateTime next(String expression, String after) {
+        return CronSchedule.parse(expression).next(at(after));
+    }
+
+    @Test
+    public void stepsThroughTheHours() {
+        assertEquals(at("2026-10-13T12:00"), next("0 */6 * * *", "2026-10-13T07:15"));
+    }
+
+    @Test
+    public void nextIsStrictlyAfterTheGivenTime() {
+        assertEquals(at("2026-10-14T02:30"), next("30 2 * * *", "2026-10-13T02:30"));
+    }
+
+    @Test
+    public void skipsTheWeekendForWeekdays() {
+        // 2026-10-16 is a Friday
+        assertEquals(at("2026-10-19T02:30"), next("30 2 * * 1-5", "2026-10-16T03:00"));
+    }
+
+    @Test
+    public void sundayIsBothZeroAndSeven() {
+        assertEquals(at("2026-10-18T12:00"), next("0 12 * * 7", "2026-10-13T00:00"));
+        assertEquals(at("2026-10-18T12:00"), next("0 12 * * 0", "2026-10-13T00:00"));
+    }
+
+    @Test
+    public void dayOfMonthAloneIgnoresTheDayOfWeek() {
+        assertEquals(at("2026-11-13T00:00"), next("0 0 13 * *", "2026-10-14T00:00"));
+    }
+
+    @Test
+    public void restrictedDayOfMonthOrDayOfWeekMatches() {
+        // The 13th is a Tuesday, the Friday after it matches through the day of week
+        assertEquals(at("2026-10-13T00:00"), next("0 0 13 * 5", "2026-10-10T00:00"));
+        assertEquals(at("2026-10-16T00:00"), next("0 0 13 * 5", "2026-10-13T00:00"));
+    }
+
+    @Test
+    public void steppedDayOfMonthCountsAsUnrestricted() {
+        // */2 starts with *, so both fields have to match: an odd day that is a Friday
+        assertEquals(at("2026-10-23T00:00"), next("0 0 */2 * 5", "2026-10-13T00:00"));
+    }
+
+    @Test
+    public void findsTheNextLeapDay() {
+        assertEquals(at("2028-02-29T00:00"), next("0 0 29 2 *", "2026-10-13T00:00"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void failsForADayThatNeverExists() {
+        next("0 0 31 2 *", "2026-10-13T00:00");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsValuesOutOfRange() {
+        CronSchedule.parse("60 * * * *");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMissingFields() {
+        CronSchedule.parse("0 0 * *");
+    }
+}
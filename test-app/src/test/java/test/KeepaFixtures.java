@@ -0,0 +1,26 @@
+package test;
+
+import java.util.Arrays;
+
+/**
+ * Builders for the handcrafted Keepa responses of the tests.
+ */
+class KeepaFixtures {
+    private KeepaFixtures() {
+    }
+
+    // stats.current and avg30 hold one value per csv type: NEW is 1, SALES 3 and BUY_BOX_SHIPPING 18
+    static String priceTypes(int newPrice, int sales, int buyBoxShipping) {
+        int[] values = new int[19];
+        Arrays.fill(values, -1);
+        values[1] = newPrice;
+        values[3] = sales;
+        values[18] = buyBoxShipping;
+        return Arrays.toString(values);
+    }
+
+    // A product response with the given product objects
+    static String products(String... products) {
+        return "{\"tokensLeft\":1200,\"products\":[" + String.join(",", products) + "]}";
+    }
+}
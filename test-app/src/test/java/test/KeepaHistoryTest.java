@@ -0,0 +1,78 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.Instant;
+
+import org.junit.Test;
+
+public class KeepaHistoryTest {
+    private static final String[] BUY_BOX_SELLERS = {"100", "A", "200", "B", "300", "A", "400", "-1"};
+
+    @Test
+    public void keepaTimeStartsIn2011() {
+        assertEquals(0, KeepaHistory.toKeepaMinutes(Instant.parse("2011-01-01T00:00:00Z").toEpochMilli()));
+        assertEquals(60, KeepaHistory.toKeepaMinutes(Instant.parse("2011-01-01T01:00:00Z").toEpochMilli()));
+    }
+
+    @Test
+    public void countsEachWinnerOnce() {
+        assertEquals(2, KeepaHistory.countBuyBoxWinnersSince(BUY_BOX_SELLERS, 100));
+    }
+
+    @Test
+    public void countsTheWinnerThatHeldTheBuyBoxAtTheStart() {
+        // B took the buy box at 200 and still had it at 250
+        assertEquals(2, KeepaHistory.countBuyBoxWinnersSince(BUY_BOX_SELLERS, 250));
+        assertEquals(1, KeepaHistory.countBuyBoxWinnersSince(BUY_BOX_SELLERS, 350));
+    }
+
+    @Test
+    public void aWinnerWhoseTimeEndedAtTheStartDoesNotCount() {
+        assertEquals(1, KeepaHistory.countBuyBoxWinnersSince(new String[] {"100", "A", "200", "B"}, 200));
+    }
+
+    @Test
+    public void noSellerIsNoWinner() {
+        assertEquals(0, KeepaHistory.countBuyBoxWinnersSince(BUY_BOX_SELLERS, 450));
+        assertEquals(0, KeepaHistory.countBuyBoxWinnersSince(new String[] {"100", "-2"}, 0));
+        assertEquals(0, KeepaHistory.countBuyBoxWinnersSince(null, 0));
+    }
+
+    @Test
+    public void ignoresAnIncompleteLastEntry() {
+        assertEquals(1, KeepaHistory.countBuyBoxWinnersSince(new String[] {"100", "A", "200"}, 0));
+    }
+
+    @Test
+    public void averageIsWeightedByTime() {
+        int[] csv = {0, 100, 50, 200};
+        assertEquals(150, KeepaHistory.averageSince(csv, KeepaHistory.NEW, 0, 100));
+        // Only 25 minutes of the first price fall into the interval
+        assertEquals(167, KeepaHistory.averageSince(csv, KeepaHistory.NEW, 25, 100));
+    }
+
+    @Test
+    public void averageSkipsTimesWithoutOffer() {
+        int[] csv = {0, 100, 50, -1, 75, 300};
+        assertEquals(167, KeepaHistory.averageSince(csv, KeepaHistory.NEW, 0, 100));
+    }
+
+    @Test
+    public void averageOnlyUsesEntriesOfTheInterval() {
+        int[] csv = {0, 100, 10, 300};
+        assertEquals(300, KeepaHistory.averageSince(csv, KeepaHistory.SALES, 50, 100));
+    }
+
+    @Test
+    public void buyBoxAverageAddsTheShipping() {
+        int[] csv = {0, 1000, 100, 50, 2000, -1};
+        assertEquals(1550, KeepaHistory.averageSince(csv, KeepaHistory.BUY_BOX_SHIPPING, 0, 100));
+    }
+
+    @Test
+    public void averageWithoutOfferIsMinusOne() {
+        assertEquals(-1, KeepaHistory.averageSince(new int[] {0, -1}, KeepaHistory.NEW, 0, 100));
+        assertEquals(-1, KeepaHistory.averageSince(null, KeepaHistory.NEW, 0, 100));
+    }
+}
@@ -0,0 +1,130 @@
+package test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static test.KeepaFixtures.priceTypes;
+import static test.KeepaFixtures.products;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.keepa.api.backend.structs.Response;
+
+import org.junit.Test;
+
+public class KeepaResponseParserTest {
+    private static final String PRODUCT = "{\"asin\":\"B000000001\",\"title\":\"Kettle\",\"brand\":\"Acme\",\"type\":\"KITCHEN\","
+        + "\"monthlySold\":300,\"referralFeePercentage\":15.0,\"lastUpdate\":7000000,\"lastPriceChange\":6990000,"
+        + "\"eanList\":[\"4000000000001\",\"4000000000002\"],\"buyBoxEligibleOfferCounts\":[4,1,0],"
+        + "\"buyBoxSellerIdHistory\":[\"100\",\"S1\",\"200\",\"S2\"],\"fbaFees\":{\"pickAndPackFee\":310},"
+        + "\"offers\":[{\"sellerId\":\"S1\",\"offerCSV\":[1,2,3]}],"
+        + "\"csv\":[null,[100,2500,200,2400],null,[100,5000],null,null,null,null,null,null,null,null,null,null,null,null,null,null,[100,2600,0]],"
+        + "\"stats\":{\"current\":" + priceTypes(2400, 5000, 2600) + ",\"avg30\":" + priceTypes(2450, 5200, 2650) + ","
+        + "\"buyBoxStats\":{\"S1\":{\"percentageWon\":60},\"S2\":{\"percentageWon\":40}},\"stockAmazon\":7,\"buyBoxPrice\":2600}}";
+
+    @Test
+    public void readsTheAsinList() throws IOException {
+        String json = "{\"tokensLeft\":5,\"bestSellersList\":{\"domainId\":3,\"asinList\":[\"B1\",\"B2\"],\"categoryId\":562066}}";
+        assertEquals(Arrays.asList("B1", "B2"), KeepaResponseParser.parseAsinList(json));
+        assertEquals(Collections.emptyList(), KeepaResponseParser.parseAsinList("{\"tokensLeft\":5}"));
+    }
+
+    @Test
+    public void readsTheUsedProductFields() throws IOException {
+        List<KeepaProduct> products = KeepaResponseParser.parseProducts(products(PRODUCT));
+        assertEquals(1, products.size());
+        KeepaProduct product = products.get(0);
+        assertEquals("B000000001", product.getAsin());
+        assertEquals("Kettle", product.title);
+        assertEquals("Acme", product.brand);
+        assertEquals("KITCHEN", product.type);
+        assertEquals(300, product.monthlySold);
+        assertEquals(15.0, product.referralFeePercentage, 0);
+        assertEquals(7000000, product.getLastUpdate());
+        assertEquals(6990000, product.getLastPriceChange());
+        assertEquals("4000000000001, 4000000000002", product.eanList);
+        assertEquals(4, product.buyBoxEligibleOfferCount);
+        assertEquals("S2", product.getLastBuyBoxSellerId());
+        assertEquals(310, product.pickAndPackFee, 0);
+
+        assertTrue(product.hasStats);
+        assertTrue(product.hasAvg30);
+        assertEquals(2400, product.newCurrent);
+        assertEquals(5000, product.salesCurrent);
+        assertEquals(2600, product.buyBoxShippingCurrent);
+        assertEquals(2450, product.newAvg30);
+        assertEquals(5200, product.salesAvg30);
+        assertEquals(2650, product.buyBoxShippingAvg30);
+        assertEquals(2, product.getBuyBoxStatsCount());
+        assertEquals(7, product.stockAmazon);
+        assertEquals(2600, product.buyBoxPrice);
+    }
+
+    @Test
+    public void keepsHistoriesOnlyOnRequest() throws IOException {
+        KeepaProduct product = KeepaResponseParser.parseProducts(products(PRODUCT)).get(0);
+        assertNull(product.newHistory);
+        assertNull(product.buyBoxSellerIdHistory);
+
+        product = KeepaResponseParser.parseProducts(products(PRODUCT), true).get(0);
+        assertArrayEquals(new int[] {100, 2500, 200, 2400}, product.newHistory);
+        assertArrayEquals(new int[] {100, 5000}, product.salesHistory);
+        assertArrayEquals(new int[] {100, 2600, 0}, product.buyBoxShippingHistory);
+        assertEquals(Arrays.asList("100", "S1", "200", "S2"), Arrays.asList(product.buyBoxSellerIdHistory));
+        assertEquals("S2", product.getLastBuyBoxSellerId());
+    }
+
+    @Test
+    public void missingAndNullFieldsKeepTheirDefaults() throws IOException {
+        KeepaProduct product = KeepaResponseParser.parseProducts(products("{\"asin\":\"B2\",\"title\":null,\"eanList\":null}")).get(0);
+        assertEquals("B2", product.getAsin());
+        assertEquals("N/A", product.title);
+        assertEquals("", product.eanList);
+        assertEquals(0, product.getBuyBoxStatsCount());
+        assertNull(product.getLastBuyBoxSellerId());
+    }
+
+    @Test
+    public void stockAmazonIsOnlyUnknownWithoutStats() throws IOException {
+        List<KeepaProduct> products = KeepaResponseParser.parseProducts(products(
+            "{\"asin\":\"B1\"}",
+            "{\"asin\":\"B2\",\"stats\":{\"current\":" + priceTypes(100, 200, 300) + "}}",
+            "{\"asin\":\"B3\",\"stats\":{\"stockAmazon\":12}}"));
+        assertEquals(-2, products.get(0).stockAmazon);
+        assertEquals(0, products.get(1).stockAmazon);
+        assertEquals(12, products.get(2).stockAmazon);
+    }
+
+    @Test
+    public void readsSellerNames() throws IOException {
+        String json = "{\"sellers\":{\"S1\":{\"sellerName\":\"Shop One\",\"csv\":[[1,2]]},\"S2\":{\"sellerName\":null}}}";
+        Map<String, String> sellerNames = KeepaResponseParser.parseSellerNames(json);
+        assertEquals(Collections.singletonMap("S1", "Shop One"), sellerNames);
+    }
+
+    @Test
+    public void readsCategoryChildren() throws IOException {
+        String json = "{\"categories\":{\"562066\":{\"name\":\"Elektronik\",\"children\":[1,2]},\"3\":{\"name\":\"Leaf\"}}}";
+        Map<Long, List<Long>> children = KeepaResponseParser.parseCategoryChildren(json);
+        assertEquals(Arrays.asList(1L, 2L), children.get(562066L));
+        assertEquals(Collections.emptyList(), children.get(3L));
+    }
+
+    @Test
+    public void readsTheJsonOfAResponse() throws IOException {
+        // Library responses serialize their deserialized fields back to JSON
+        Response response = new Response() {
+            @Override
+            public String toString() {
+                return products(PRODUCT);
+            }
+        };
+        assertEquals("B000000001", KeepaResponseParser.parseProducts(response).get(0).getAsin());
+        assertEquals(5000, KeepaResponseParser.parseProducts(response, true).get(0).salesHistory[1]);
+    }
+}
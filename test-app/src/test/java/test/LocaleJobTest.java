@@ -0,0 +1,62 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import com.keepa.api.backend.structs.AmazonLocale;
+
+import org.junit.Test;
+
+public class LocaleJobTest {
+    @Test
+    public void parsesEveryEntry() {
+        List<LocaleJob> jobs = LocaleJob.parseList("DE:562066:1000,FR:13921051:500", 100);
+        assertEquals(2, jobs.size());
+        assertEquals(AmazonLocale.DE, jobs.get(0).getLocale());
+        assertEquals(562066L, jobs.get(0).getCategoryNodeId());
+        assertEquals(1000, jobs.get(0).getMaxAsins());
+        assertEquals(AmazonLocale.FR, jobs.get(1).getLocale());
+        assertEquals(13921051L, jobs.get(1).getCategoryNodeId());
+        assertEquals(500, jobs.get(1).getMaxAsins());
+    }
+
+    @Test
+    public void usesTheDefaultMaxAsins() {
+        assertEquals(100, LocaleJob.parseList("DE:562066", 100).get(0).getMaxAsins());
+    }
+
+    @Test
+    public void ukIsTheGbLocale() {
+        assertEquals(AmazonLocale.GB, LocaleJob.parseList("uk:560798", 100).get(0).getLocale());
+        assertEquals(AmazonLocale.GB, LocaleJob.parseList("GB:560798", 100).get(0).getLocale());
+    }
+
+    @Test
+    public void ignoresBlanksAndEmptyEntries() {
+        List<LocaleJob> jobs = LocaleJob.parseList(" DE : 562066 : 10 ,, FR:13921051 ,", 100);
+        assertEquals(2, jobs.size());
+        assertEquals(10, jobs.get(0).getMaxAsins());
+        assertEquals(AmazonLocale.FR, jobs.get(1).getLocale());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAMissingNode() {
+        LocaleJob.parseList("DE", 100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTooManyParts() {
+        LocaleJob.parseList("DE:562066:10:5", 100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnUnknownLocale() {
+        LocaleJob.parseList("XX:562066", 100);
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void rejectsANodeThatIsNoNumber() {
+        LocaleJob.parseList("DE:books", 100);
+    }
+}
@@ -0,0 +1,103 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ProductExportTest {
+    // A result set positioned on one row, only getString is used by the CSV sink
+    private static ResultSet row(String... values) {
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] {ResultSet.class}, (proxy, method, args) -> {
+            if ("getString".equals(method.getName()) && args[0] instanceof Integer) {
+                return values[(Integer) args[0] - 1];
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+    private static String toCsv(String[] header, String... values) throws IOException, SQLException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ProductExport.CsvSink sink = new ProductExport.CsvSink(out)) {
+            sink.writeHeader(header);
+            int[] columnTypes = new int[values.length];
+            Arrays.fill(columnTypes, Types.VARCHAR);
+            sink.writeRow(row(values), columnTypes);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void writesAByteOrderMarkAndCrLf() throws IOException, SQLException {
+        assertEquals("\uFEFFasin,title\r\nB1,Kettle\r\n", toCsv(new String[] {"asin", "title"}, "B1", "Kettle"));
+    }
+
+    @Test
+    public void quotesValuesWithSeparatorsQuotesAndLineBreaks() throws IOException, SQLException {
+        String csv = toCsv(new String[] {"a", "b", "c", "d"}, "Kettle, 1.7 l", "12\" pan", "two\nlines", "cr\rhere");
+        assertEquals("\uFEFFa,b,c,d\r\n\"Kettle, 1.7 l\",\"12\"\" pan\",\"two\nlines\",\"cr\rhere\"\r\n", csv);
+    }
+
+    @Test
+    public void nullIsAnEmptyField() throws IOException, SQLException {
+        assertEquals("\uFEFFa,b,c\r\nB1,,x\r\n", toCsv(new String[] {"a", "b", "c"}, "B1", null, "x"));
+    }
+
+    @Test
+    public void quotesHeadersLikeValues() throws IOException, SQLException {
+        assertEquals("\uFEFF\"a,b\"\r\nx\r\n", toCsv(new String[] {"a,b"}, "x"));
+    }
+
+    @Test
+    public void parsesOptions() {
+        Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("locale", "DE");
+        expected.put("type", "ABIS_BOOK");
+        expected.put("verbose", "true");
+        assertEquals(expected, ProductExport.parseOptions(new String[] {"--locale=DE", "--type=ABIS_BOOK", "--verbose"}));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsArgumentsWithoutDashes() {
+        ProductExport.parseOptions(new String[] {"DE"});
+    }
+
+    @Test
+    public void noFiltersNoWhereClause() {
+        List<Object> parameters = new ArrayList<>();
+        assertEquals("", ProductExport.getWhereClause(Collections.<String, String>emptyMap(), parameters));
+        assertEquals(Collections.emptyList(), parameters);
+    }
+
+    @Test
+    public void filtersAreBoundAsParameters() {
+        Map<String, String> filters = new LinkedHashMap<>();
+        filters.put("category", "562066");
+        filters.put("type", "ABIS_%");
+        filters.put("min-monthly-sold", "100");
+        filters.put("min-winners", "1");
+        filters.put("max-winners", "3");
+        List<Object> parameters = new ArrayList<>();
+        assertEquals(" WHERE category_node_id = ? AND lower(type) = lower(?) AND monthly_sold >= ? AND winner_count_30 >= ? AND winner_count_30 <= ?",
+            ProductExport.getWhereClause(filters, parameters));
+        assertEquals(Arrays.<Object>asList(562066L, "ABIS_%", 100, 1, 3), parameters);
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void rejectsACategoryThatIsNoNodeId() {
+        ProductExport.getWhereClause(Collections.singletonMap("category", "Books"), new ArrayList<>());
+    }
+}
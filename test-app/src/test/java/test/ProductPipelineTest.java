@@ -0,0 +1,97 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static test.KeepaFixtures.priceTypes;
+import static test.KeepaFixtures.products;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ProductPipelineTest {
+    // Fixed time of the fixtures, 30 days before it is 6956800 and 90 days before it 6870400
+    private static final int NOW = 7000000;
+    private static final List<String> ASINS = Arrays.asList("B000000001", "B000000002");
+
+    private static String product(String asin, String fields, String stats) {
+        return "{\"asin\":\"" + asin + "\",\"title\":\"Kettle\",\"brand\":\"Acme\",\"type\":\"KITCHEN\",\"monthlySold\":300,"
+            + "\"referralFeePercentage\":15.0,\"lastUpdate\":6999000,\"lastPriceChange\":6990000,\"eanList\":[\"4000000000001\"],"
+            + "\"buyBoxEligibleOfferCounts\":[4,1,0],\"fbaFees\":{\"pickAndPackFee\":310}" + fields
+            + ",\"stats\":{\"current\":" + priceTypes(2300, 4000, 2500) + ",\"stockAmazon\":7" + stats + "}}";
+    }
+
+    // S3 last held the buy box 90 days back, S1 and S2 within the last 30 days
+    private static final String BUY_BOX_HISTORY = ",\"buyBoxSellerIdHistory\":[\"6860000\",\"S3\",\"6900000\",\"S1\",\"6960000\",\"S2\",\"6980000\",\"S1\"]";
+    private static final String CSV = ",\"csv\":[null,[6940000,2500,6970000,2300],null,[6900000,5000,6986800,4000],"
+        + "null,null,null,null,null,null,null,null,null,null,null,null,null,null,[6950000,2600,0,6978400,2400,100]]";
+    private static final String WINNERS_90 = ",\"buyBoxStats\":{\"S1\":{},\"S2\":{},\"S3\":{}}";
+    private static final String WINNERS_30 = ",\"buyBoxStats\":{\"S1\":{},\"S2\":{}}";
+    // The time-weighted averages of CSV over the last 30 days
+    private static final String AVG30 = ",\"avg30\":" + priceTypes(2361, 4694, 2550);
+    private static final String KEEPA_AVG30 = ",\"avg30\":" + priceTypes(2400, 4100, 2520);
+
+    // 90-day stats with histories, the second product comes with Keepa's avg30 and no buy box history
+    private static ProductPipeline.ExtractedBatch extractSingle() throws IOException {
+        String response = products(
+            product("B000000001", BUY_BOX_HISTORY + CSV, WINNERS_90),
+            product("B000000002", CSV, KEEPA_AVG30));
+        return ProductPipeline.extractProducts(ASINS, null, KeepaResponseParser.parseProducts(response, true), NOW);
+    }
+
+    // 90-day stats for the sellers and 30-day stats for the products
+    private static ProductPipeline.ExtractedBatch extractDual() throws IOException {
+        String sellers = products(
+            product("B000000001", BUY_BOX_HISTORY, WINNERS_90),
+            product("B000000002", "", KEEPA_AVG30));
+        String productData = products(
+            product("B000000001", BUY_BOX_HISTORY, WINNERS_30 + AVG30),
+            product("B000000002", "", KEEPA_AVG30));
+        return ProductPipeline.extractProducts(ASINS, KeepaResponseParser.parseProducts(sellers), KeepaResponseParser.parseProducts(productData, false), NOW);
+    }
+
+    private static ProductRow row(ProductPipeline.ExtractedBatch batch, String asin) {
+        return new ProductRow(batch.products.get(asin), 562066, "Seller", batch.winnerCounts30.get(asin), batch.winnerCounts90.get(asin));
+    }
+
+    @Test
+    public void singleFetchCountsTheWinnersOfBothIntervals() throws IOException {
+        ProductPipeline.ExtractedBatch single = extractSingle();
+        assertEquals(2, (int) single.winnerCounts30.get("B000000001"));
+        assertEquals(3, (int) single.winnerCounts90.get("B000000001"));
+        assertEquals(0, (int) single.winnerCounts30.get("B000000002"));
+        assertEquals(0, (int) single.winnerCounts90.get("B000000002"));
+    }
+
+    @Test
+    public void singleFetchDerivesAvg30OnlyWhenItIsMissing() throws IOException {
+        ProductPipeline.ExtractedBatch single = extractSingle();
+        KeepaProduct derived = single.products.get("B000000001");
+        assertEquals(2361, derived.newAvg30);
+        assertEquals(4694, derived.salesAvg30);
+        assertEquals(2550, derived.buyBoxShippingAvg30);
+        KeepaProduct reported = single.products.get("B000000002");
+        assertEquals(2400, reported.newAvg30);
+        assertEquals(4100, reported.salesAvg30);
+        assertEquals(2520, reported.buyBoxShippingAvg30);
+    }
+
+    @Test
+    public void singleFetchStoresTheSameRowsAsTwoRequests() throws IOException {
+        ProductPipeline.ExtractedBatch single = extractSingle();
+        ProductPipeline.ExtractedBatch dual = extractDual();
+        assertEquals(dual.products.keySet(), single.products.keySet());
+        assertEquals(dual.winnerCounts30, single.winnerCounts30);
+        assertEquals(dual.winnerCounts90, single.winnerCounts90);
+        for (String asin : ASINS) {
+            ProductRow expected = row(dual, asin);
+            ProductRow actual = row(single, asin);
+            assertEquals(expected.salesAvg30, actual.salesAvg30, 0);
+            assertEquals(expected.newPriceAvg30, actual.newPriceAvg30, 0);
+            assertEquals(expected.buyBoxShippingAvg30, actual.buyBoxShippingAvg30, 0);
+            assertEquals(expected.stockAmazon, actual.stockAmazon);
+            assertEquals(expected.contentHash, actual.contentHash);
+        }
+    }
+}
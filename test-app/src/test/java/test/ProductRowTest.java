@@ -0,0 +1,106 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ProductRowTest {
+    private static final long NODE_ID = 562066;
+
+    private static KeepaProduct product() {
+        KeepaProduct product = new KeepaProduct();
+        product.asin = "B000000001";
+        product.title = "Kettle";
+        product.brand = "Acme";
+        product.type = "KITCHEN";
+        product.eanList = "4000000000001";
+        product.monthlySold = 300;
+        product.salesCurrent = 5000;
+        product.newCurrent = 2499;
+        product.newAvg30 = 2550;
+        product.buyBoxShippingCurrent = 2600;
+        product.buyBoxPrice = 2600;
+        product.referralFeePercentage = 15;
+        product.pickAndPackFee = 310;
+        product.stockAmazon = 7;
+        product.lastUpdate = 7000000;
+        product.lastPriceChange = 6990000;
+        return product;
+    }
+
+    private static ProductRow row(KeepaProduct product) {
+        return new ProductRow(product, NODE_ID, "Shop One", 2, 3);
+    }
+
+    @Test
+    public void convertsCentsToEuros() {
+        ProductRow row = row(product());
+        assertEquals(24.99, row.newPriceCurrent, 1e-9);
+        assertEquals(25.5, row.newPriceAvg30, 1e-9);
+        assertEquals(26.0, row.buyBoxShippingCurrent, 1e-9);
+        assertEquals(3.1, row.getFbaFeeEuros(), 1e-9);
+        assertEquals(3.9, row.getReferralFeeBuyBoxEuros(), 1e-9);
+    }
+
+    @Test
+    public void unknownStockIsStoredAsNull() {
+        assertTrue(row(product()).hasStockAmazon());
+        KeepaProduct product = product();
+        product.stockAmazon = -2;
+        assertFalse(row(product).hasStockAmazon());
+    }
+
+    @Test
+    public void sameContentHasTheSameHash() {
+        assertEquals(row(product()).contentHash, row(product()).contentHash);
+    }
+
+    @Test
+    public void keepaTimesAreNotPartOfTheHash() {
+        KeepaProduct product = product();
+        product.lastUpdate++;
+        product.lastPriceChange++;
+        assertEquals(row(product()).contentHash, row(product).contentHash);
+    }
+
+    @Test
+    public void everyStoredValueChangesTheHash() {
+        long hash = row(product()).contentHash;
+
+        KeepaProduct product = product();
+        product.title = "Kettle 2";
+        assertNotEquals(hash, row(product).contentHash);
+
+        product = product();
+        product.newCurrent++;
+        assertNotEquals(hash, row(product).contentHash);
+
+        product = product();
+        product.stockAmazon = 0;
+        assertNotEquals(hash, row(product).contentHash);
+
+        assertNotEquals(hash, new ProductRow(product(), NODE_ID, "Shop Two", 2, 3).contentHash);
+        assertNotEquals(hash, new ProductRow(product(), NODE_ID, "Shop One", 3, 3).contentHash);
+        assertNotEquals(hash, new ProductRow(product(), NODE_ID, "Shop One", 2, 4).contentHash);
+        assertNotEquals(hash, new ProductRow(product(), NODE_ID + 1, "Shop One", 2, 3).contentHash);
+    }
+
+    @Test
+    public void nullAndEmptyStringsHashDifferently() {
+        assertNotEquals(new ProductRow(product(), NODE_ID, null, 2, 3).contentHash, new ProductRow(product(), NODE_ID, "", 2, 3).contentHash);
+    }
+
+    @Test
+    public void valuesDoNotShiftBetweenFields() {
+        KeepaProduct first = product();
+        first.title = "ab";
+        first.brand = "c";
+        KeepaProduct second = product();
+        second.title = "a";
+        second.brand = "bc";
+        assertNotEquals(row(first).contentHash, row(second).contentHash);
+    }
+}
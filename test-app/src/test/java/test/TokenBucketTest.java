@@ -0,0 +1,98 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.keepa.api.backend.structs.Response;
+
+import org.junit.Test;
+
+public class TokenBucketTest {
+    private static Response response(int tokensLeft, int refillRate, int refillIn) {
+        Response response = new Response();
+        response.tokensLeft = tokensLeft;
+        response.refillRate = refillRate;
+        response.refillIn = refillIn;
+        return response;
+    }
+
+    private static Thread acquireInBackground(TokenBucket bucket, int cost) {
+        Thread thread = new Thread(() -> {
+            try {
+                bucket.acquire(cost);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    public void onlyOneRequestProbesAnUnknownBucket() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket();
+        bucket.acquire(5);
+        Thread second = acquireInBackground(bucket, 5);
+        second.join(200);
+        assertTrue("second request waits for the probe", second.isAlive());
+
+        bucket.update(response(100, 20, 60000), 5);
+        second.join(2000);
+        assertFalse(second.isAlive());
+        assertEquals(95, bucket.getTokensLeft());
+    }
+
+    @Test
+    public void responsesKeepTheReservationsOfOtherRequests() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket();
+        bucket.acquire(5);
+        bucket.update(response(100, 20, 60000), 5);
+        bucket.acquire(10);
+        bucket.acquire(10);
+        assertEquals(80, bucket.getTokensLeft());
+        assertEquals(20, bucket.getReserved());
+
+        // Keepa charged the first request, the second one is still in flight
+        bucket.update(response(90, 20, 60000), 10);
+        assertEquals(10, bucket.getReserved());
+        assertEquals(80, bucket.getTokensLeft());
+
+        bucket.update(response(80, 20, 60000), 10);
+        assertEquals(0, bucket.getReserved());
+        assertEquals(80, bucket.getTokensLeft());
+    }
+
+    @Test
+    public void aFailedTransferOnlyReleasesItsReservation() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket();
+        bucket.acquire(5);
+        bucket.update(response(100, 20, 60000), 5);
+        bucket.acquire(10);
+        bucket.update(null, 10);
+        assertEquals(0, bucket.getReserved());
+        assertEquals(90, bucket.getTokensLeft());
+    }
+
+    @Test
+    public void aPositiveBalanceMayBeOverdrawn() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket();
+        bucket.acquire(1);
+        bucket.update(response(1, 20, 60000), 1);
+        bucket.acquire(10);
+        assertEquals(-9, bucket.getTokensLeft());
+    }
+
+    @Test
+    public void anEmptyBucketWaitsForTheRefill() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket();
+        bucket.acquire(1);
+        bucket.update(response(0, 60, 200), 1);
+
+        long startedAt = System.nanoTime();
+        bucket.acquire(10);
+        long waitedMs = (System.nanoTime() - startedAt) / 1000000;
+        assertTrue("waited " + waitedMs + " ms", waitedMs >= 150);
+        assertEquals(50, bucket.getTokensLeft());
+    }
+}